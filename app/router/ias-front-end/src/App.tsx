@@ -2,7 +2,7 @@ import { useState, useEffect } from 'react';
 import { Container, Stack, Group as MantineGroup, Button, Paper } from '@mantine/core';
 import type { ViewType, User, Group } from './types';
 import { useUsers } from './hooks/useUsers';
-import { useGroups } from './hooks/useGroups';
+import { useGroups, fetchGroupIdsOfUser } from './hooks/useGroups';
 import { useSelection } from './hooks/useSelection';
 import { SearchBar } from './components/common/SearchBar';
 import { UserTable } from './components/users/UserTable';
@@ -122,7 +122,7 @@ function App() {
   // DATA HOOKS (get data and CRUD operations)
   // ============================================
   const { users, loading: usersLoading, error: usersError, addUser, updateUser, deleteUsers } = useUsers();
-  const { groups, groupMembers, loading: groupsLoading, error: groupsError, addGroup, updateGroup, deleteGroups, addUsersToGroup, removeUserFromGroup, removeDeletedUsersFromGroups, updateUserInGroupMembers } = useGroups();
+  const { groups, groupMembers, loading: groupsLoading, error: groupsError, addGroup, updateGroup, deleteGroups, addUsersToGroup, removeUserFromGroup, removeDeletedUsersFromGroups, updateUserInGroupMembers } = useGroups(users);
   const { selectedIds, toggleSelection, clearSelection, toggleSelectAll } = useSelection();
 
   // ============================================
@@ -173,6 +173,27 @@ function App() {
     });
   }, [groupMembers, groups]);
 
+  // ============================================
+  // LOAD GROUPS OF THE SELECTED USER
+  // ============================================
+  // groupMembers only covers groups whose members were fetched, so ask the
+  // server for the complete list when a user is opened
+  useEffect(() => {
+    const userId = selectedUser?.id;
+    if (!userId) return;
+    let cancelled = false;
+    fetchGroupIdsOfUser(userId)
+      .then(groupIds => {
+        if (cancelled) return;
+        const ids = new Set(groupIds);
+        setUserGroups(prev => ({ ...prev, [userId]: groups.filter(g => ids.has(g.id)) }));
+      })
+      .catch(err => console.error('Failed to load groups of user', err));
+    return () => {
+      cancelled = true;
+    };
+  }, [selectedUser?.id, groups]);
+
   // ============================================
   // RESTORE SELECTED ITEMS AFTER DATA LOADS
   // ============================================
@@ -0,0 +1,62 @@
+import { useEffect, useRef } from 'react';
+
+// Change event pushed by the backend (see srv ChangeFeed)
+export interface ChangeEvent {
+  entity: 'Users' | 'Groups' | 'GroupMembers';
+  op: 'upsert' | 'delete';
+  id: string;
+  data: any | null;
+}
+
+type Listener = {
+  onChange: (event: ChangeEvent) => void;
+  onReset: () => void;
+};
+
+const FEED_URL = '/events/changes';
+
+// One EventSource shared by all hooks; the browser resumes it with Last-Event-ID on reconnect
+let source: EventSource | null = null;
+const listeners = new Set<Listener>();
+
+const ensureSource = () => {
+  if (source) return;
+  source = new EventSource(FEED_URL);
+
+  source.addEventListener('change', (e: MessageEvent) => {
+    const event: ChangeEvent = JSON.parse(e.data);
+    listeners.forEach(l => l.onChange(event));
+  });
+
+  // The server dropped events this client never saw: reload everything
+  source.addEventListener('reset', () => {
+    listeners.forEach(l => l.onReset());
+  });
+};
+
+const releaseSource = () => {
+  if (listeners.size === 0 && source) {
+    source.close();
+    source = null;
+  }
+};
+
+export const useChangeFeed = (onChange: (event: ChangeEvent) => void, onReset: () => void) => {
+  // Keep the latest callbacks without resubscribing on every render
+  const listenerRef = useRef<Listener>({ onChange, onReset });
+  listenerRef.current.onChange = onChange;
+  listenerRef.current.onReset = onReset;
+
+  useEffect(() => {
+    const listener: Listener = {
+      onChange: event => listenerRef.current.onChange(event),
+      onReset: () => listenerRef.current.onReset(),
+    };
+    listeners.add(listener);
+    ensureSource();
+    return () => {
+      listeners.delete(listener);
+      releaseSource();
+    };
+  }, []);
+};
@@ -1,5 +1,7 @@
-import { useState, useEffect } from 'react';
+import { useState, useEffect, useRef } from 'react';
 import type { Group, User } from '../types';
+import { useChangeFeed } from './useChangeFeed';
+import { mapApiUserToUser, mergeApiUser } from './useUsers';
 
 // Map API response to Group type
 const mapApiGroupToGroup = (apiGroup: any): Group => {
@@ -34,16 +36,37 @@ const mapGroupToApiGroup = (group: Group): any => {
   };
 };
 
+// Apply a (possibly partial) API payload from the change feed on top of a known group
+const mergeApiGroup = (existing: Group | undefined, data: any): Group =>
+  mapApiGroupToGroup(existing ? { ...existing, ...data } : data);
+
+// Insert or replace a group by id
+const upsertGroup = (list: Group[], group: Group): Group[] =>
+  list.some(g => g.id === group.id) ? list.map(g => (g.id === group.id ? group : g)) : [...list, group];
+
 const API_BASE_URL = '/odata/v4/IasReplicaService';
 
-export const useGroups = () => {
+// IDs of the groups a user belongs to, from the server's membership index
+export const fetchGroupIdsOfUser = async (userId: string): Promise<string[]> => {
+  const response = await fetch(`${API_BASE_URL}/groupsOfUser(userId='${encodeURIComponent(userId)}')`);
+  if (!response.ok) {
+    throw new Error(`HTTP error! status: ${response.status}`);
+  }
+  const data = await response.json();
+  return data.value || [];
+};
+
+// users: the users loaded by useUsers, used to resolve members announced by the change feed
+export const useGroups = (users: User[]) => {
   const [groups, setGroups] = useState<Group[]>([]);
+  const usersRef = useRef(users);
+  usersRef.current = users;
   const [groupMembers, setGroupMembers] = useState<{ [groupId: string]: User[] }>({});
   const [loading, setLoading] = useState(true);
   const [error, setError] = useState<string | null>(null);
 
-  // Fetch groups from API
-  const fetchGroups = async () => {
+  // Fetch groups from API; resolves to the fetched groups (empty on error)
+  const fetchGroups = async (): Promise<Group[]> => {
     try {
       setLoading(true);
       setError(null);
@@ -55,10 +78,12 @@ export const useGroups = () => {
       }
       
       const data = await response.json();
-      const fetchedGroups = (data.value || []).map(mapApiGroupToGroup);
+      const fetchedGroups: Group[] = (data.value || []).map(mapApiGroupToGroup);
       setGroups(fetchedGroups);
+      return fetchedGroups;
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to fetch groups');
+      return [];
     } finally {
       setLoading(false);
     }
@@ -196,22 +221,69 @@ export const useGroups = () => {
     }
   };
 
+  // Load groups and all their members; only on mount and when the change feed resets.
+  // Afterwards member lists are kept current by GroupMembers events alone.
+  const loadGroupsWithMembers = async () => {
+    const fetchedGroups = await fetchGroups();
+    const ids = new Set(fetchedGroups.map(g => g.id));
+    setGroupMembers(prev => Object.fromEntries(Object.entries(prev).filter(([groupId]) => ids.has(groupId))));
+    fetchedGroups.forEach(group => fetchGroupMembers(group.id));
+  };
+
   // Load groups on mount
   useEffect(() => {
-    fetchGroups();
+    loadGroupsWithMembers();
   }, []);
 
-  // Fetch all group members after groups are loaded
-  useEffect(() => {
-    if (groups.length > 0) {
-      console.log('=== Fetching members for all groups at startup ===');
-      console.log('Total groups to fetch:', groups.length);
-      groups.forEach((group, index) => {
-        console.log(`Fetching members for group ${index + 1}/${groups.length}: ${group.name} (${group.id})`);
-        fetchGroupMembers(group.id);
+  // Patch local state from server-side changes (including the IAS sync)
+  useChangeFeed(event => {
+    if (event.entity === 'Groups') {
+      if (event.op === 'delete') {
+        setGroups(prev => prev.filter(g => g.id !== event.id));
+        setGroupMembers(prev => {
+          const rest = { ...prev };
+          delete rest[event.id];
+          return rest;
+        });
+        return;
+      }
+      setGroups(prev => upsertGroup(prev, mergeApiGroup(prev.find(g => g.id === event.id), event.data)));
+      return;
+    }
+
+    if (event.entity === 'Users') {
+      // Keep member lists in step with user edits and deletions
+      setGroupMembers(prev => {
+        const updated: { [groupId: string]: User[] } = {};
+        Object.keys(prev).forEach(groupId => {
+          updated[groupId] = event.op === 'delete'
+            ? prev[groupId].filter(u => u.id !== event.id)
+            : prev[groupId].map(u => (u.id === event.id ? mergeApiUser(u, event.data) : u));
+        });
+        return updated;
       });
+      return;
     }
-  }, [groups]);
+
+    // GroupMembers
+    const { group_ID: groupId, user_ID: userId } = event.data || {};
+    if (!groupId || !userId) return;
+    if (event.op === 'delete') {
+      setGroupMembers(prev => ({
+        ...prev,
+        [groupId]: (prev[groupId] || []).filter(u => u.id !== userId)
+      }));
+      return;
+    }
+    // Resolve the member locally instead of one request per event and console. A user
+    // not loaded yet is kept as a stub and filled in by its own Users event.
+    const member = usersRef.current.find(u => u.id === userId) || mapApiUserToUser({ ID: userId });
+    setGroupMembers(prev => {
+      const current = prev[groupId] || [];
+      if (current.some(u => u.id === userId)) return prev;
+      return { ...prev, [groupId]: [...current, member] };
+    });
+  }, loadGroupsWithMembers);
 
   const addGroup = async (group: Partial<Group>) => {
     try {
@@ -234,7 +306,7 @@ export const useGroups = () => {
 
       const createdGroup = await response.json();
       const mappedGroup = mapApiGroupToGroup(createdGroup);
-      setGroups([...groups, mappedGroup]);
+      setGroups(prev => upsertGroup(prev, mappedGroup));
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to create group');
       throw err;
@@ -256,7 +328,7 @@ export const useGroups = () => {
         throw new Error(`HTTP error! status: ${response.status}`);
       }
 
-      setGroups(groups.map(g => g.id === updatedGroup.id ? updatedGroup : g));
+      setGroups(prev => upsertGroup(prev, updatedGroup));
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to update group');
       throw err;
@@ -265,23 +337,33 @@ export const useGroups = () => {
 
   const deleteGroups = async (groupIds: string[]) => {
     try {
-      // Delete groups one by one (OData doesn't support bulk delete by default)
-      await Promise.all(
-        groupIds.map(groupId =>
-          fetch(`${API_BASE_URL}/Groups(${groupId})`, {
-            method: 'DELETE',
-          }).then(response => {
-            if (!response.ok) {
-              throw new Error(`HTTP error! status: ${response.status}`);
-            }
-          })
-        )
-      );
+      // One bulk call: the backend deletes in IAS in parallel and reports per ID
+      const response = await fetch(`${API_BASE_URL}/deleteGroups`, {
+        method: 'POST',
+        headers: {
+          'Content-Type': 'application/json',
+        },
+        body: JSON.stringify({ ids: groupIds }),
+      });
 
-      setGroups(groups.filter(g => !groupIds.includes(g.id)));
-      const newGroupMembers = { ...groupMembers };
-      groupIds.forEach(id => delete newGroupMembers[id]);
-      setGroupMembers(newGroupMembers);
+      if (!response.ok) {
+        throw new Error(`HTTP error! status: ${response.status}`);
+      }
+
+      const data = await response.json();
+      const results: { id: string; success: boolean; message?: string }[] = data.value || [];
+      const deletedIds = results.filter(r => r.success).map(r => r.id);
+      setGroups(prev => prev.filter(g => !deletedIds.includes(g.id)));
+      setGroupMembers(prev => {
+        const rest = { ...prev };
+        deletedIds.forEach(id => delete rest[id]);
+        return rest;
+      });
+
+      const failed = results.filter(r => !r.success);
+      if (failed.length > 0) {
+        throw new Error(`Failed to delete ${failed.length} group(s): ${failed.map(r => `${r.id} (${r.message})`).join(', ')}`);
+      }
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to delete groups');
       throw err;
@@ -329,9 +411,6 @@ export const useGroups = () => {
           [groupId]: updatedMembers
         };
       });
-
-      // Also refresh from API to ensure we have the latest data
-      await fetchGroupMembers(groupId);
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to add users to group');
       throw err;
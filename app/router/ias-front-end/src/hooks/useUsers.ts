@@ -1,5 +1,6 @@
 import { useState, useEffect } from 'react';
 import type { User } from '../types';
+import { useChangeFeed } from './useChangeFeed';
 
 // Capitalize user type (backend may send lowercase, e.g. "employee" -> "Employee")
 const capitalizeUserType = (str: string): string => {
@@ -20,7 +21,7 @@ const toDateTimeIso = (value: string | undefined): string | undefined => {
 };
 
 // Map API response to User type
-const mapApiUserToUser = (apiUser: any): User => {
+export const mapApiUserToUser = (apiUser: any): User => {
   // The ID from the response is the SCIM ID (set by backend)
   const scimId = apiUser.ID || apiUser.id || String(apiUser.ID || apiUser.id || '');
   
@@ -76,6 +77,14 @@ const mapUserToApiUser = (user: User): any => {
   };
 };
 
+// Apply a (possibly partial) API payload from the change feed on top of a known user
+export const mergeApiUser = (existing: User | undefined, data: any): User =>
+  mapApiUserToUser(existing ? { ...mapUserToApiUser(existing), ...data } : data);
+
+// Insert or replace a user by id
+const upsertUser = (list: User[], user: User): User[] =>
+  list.some(u => u.id === user.id) ? list.map(u => (u.id === user.id ? user : u)) : [...list, user];
+
 const API_BASE_URL = '/odata/v4/IasReplicaService';
 
 export const useUsers = () => {
@@ -109,6 +118,16 @@ export const useUsers = () => {
     fetchUsers();
   }, []);
 
+  // Patch local state from server-side changes (including the IAS sync)
+  useChangeFeed(event => {
+    if (event.entity !== 'Users') return;
+    if (event.op === 'delete') {
+      setUsers(prev => prev.filter(u => u.id !== event.id));
+      return;
+    }
+    setUsers(prev => upsertUser(prev, mergeApiUser(prev.find(u => u.id === event.id), event.data)));
+  }, fetchUsers);
+
   const addUser = async (user: Partial<User>) => {
     try {
       // For POST, don't include ID - it comes from the response
@@ -130,7 +149,7 @@ export const useUsers = () => {
 
       const createdUser = await response.json();
       const mappedUser = mapApiUserToUser(createdUser);
-      setUsers([...users, mappedUser]);
+      setUsers(prev => upsertUser(prev, mappedUser));
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to create user');
       throw err;
@@ -152,7 +171,7 @@ export const useUsers = () => {
         throw new Error(`HTTP error! status: ${response.status}`);
       }
 
-      setUsers(users.map(u => u.id === updatedUser.id ? updatedUser : u));
+      setUsers(prev => upsertUser(prev, updatedUser));
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to update user');
       throw err;
@@ -161,20 +180,28 @@ export const useUsers = () => {
 
   const deleteUsers = async (userIds: string[]) => {
     try {
-      // Delete users one by one (OData doesn't support bulk delete by default)
-      await Promise.all(
-        userIds.map(userId =>
-          fetch(`${API_BASE_URL}/Users(${userId})`, {
-            method: 'DELETE',
-          }).then(response => {
-            if (!response.ok) {
-              throw new Error(`HTTP error! status: ${response.status}`);
-            }
-          })
-        )
-      );
-
-      setUsers(users.filter(u => !userIds.includes(u.id)));
+      // One bulk call: the backend deletes in IAS in parallel and reports per ID
+      const response = await fetch(`${API_BASE_URL}/deleteUsers`, {
+        method: 'POST',
+        headers: {
+          'Content-Type': 'application/json',
+        },
+        body: JSON.stringify({ ids: userIds }),
+      });
+
+      if (!response.ok) {
+        throw new Error(`HTTP error! status: ${response.status}`);
+      }
+
+      const data = await response.json();
+      const results: { id: string; success: boolean; message?: string }[] = data.value || [];
+      const deletedIds = results.filter(r => r.success).map(r => r.id);
+      setUsers(prev => prev.filter(u => !deletedIds.includes(u.id)));
+
+      const failed = results.filter(r => !r.success);
+      if (failed.length > 0) {
+        throw new Error(`Failed to delete ${failed.length} user(s): ${failed.map(r => `${r.id} (${r.message})`).join(', ')}`);
+      }
     } catch (err) {
       setError(err instanceof Error ? err.message : 'Failed to delete users');
       throw err;
@@ -9,6 +9,10 @@ export default defineConfig({
       '/odata': {
         target: 'http://localhost:8080',
         
+        changeOrigin: true
+      },
+      '/events': {
+        target: 'http://localhost:8080',
         changeOrigin: true
       }
     }
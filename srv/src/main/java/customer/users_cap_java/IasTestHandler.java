@@ -2,7 +2,7 @@ package customer.users_cap_java;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -14,35 +14,35 @@ import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import customer.users_cap_java.client.IasTenantProperties;
 
 import java.util.Base64;
 import java.util.List;
 
 /**
  * Test handler to verify IAS service connection using simple HTTP request
- * This will run on application startup to test the connection
+ * This will run on application startup to test the connection of every configured tenant
  */
 @Component
 public class IasTestHandler implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(IasTestHandler.class);
 
-    @Value("https://a0adggohp.trial-accounts.ondemand.com/scim")
-    private String iasUrl;
-
-    @Value("f8d01d08-7847-4554-a995-2652d2e3581e")
-    private String iasClientId;
-
-    @Value("YjaC@:XbEw[TeX2:s?/I/3gQkp-6Nioiy")
-    private String iasClientSecret;
+    @Autowired
+    private IasTenantProperties tenantProperties;
 
     @Override
     public void run(String... args) {
-        testIasConnection();
+        for (IasTenantProperties.Tenant tenant : tenantProperties.getTenants()) {
+            testIasConnection(tenant);
+        }
     }
 
-    public void testIasConnection() {
-        logger.info("Testing IAS service connection with simple HTTP request...");
+    public void testIasConnection(IasTenantProperties.Tenant tenant) {
+        logger.info("Testing IAS service connection of tenant '{}' with simple HTTP request...", tenant.getId());
+        String iasUrl = tenant.getUrl();
+        String iasClientId = tenant.getClientId();
+        String iasClientSecret = tenant.getClientSecret();
         
         try {
             // Create RestTemplate and configure headers with basic auth
@@ -72,7 +72,7 @@ public class IasTestHandler implements CommandLineRunner {
             ObjectMapper mapper = new ObjectMapper();
             JsonNode rootNode = mapper.readTree(response.getBody());
             
-            logger.info("✅ IAS connection successful!");
+            logger.info("✅ IAS connection to tenant '{}' successful!", tenant.getId());
             logger.info("Response status: {}", response.getStatusCode());
             
             // Extract users from Resources array
@@ -102,7 +102,7 @@ public class IasTestHandler implements CommandLineRunner {
             }
             
         } catch (Exception e) {
-            logger.error("❌ Failed to connect to IAS service: {}", e.getMessage(), e);
+            logger.error("❌ Failed to connect to IAS tenant '{}': {}", tenant.getId(), e.getMessage(), e);
             e.printStackTrace();
         }
     }
@@ -0,0 +1,59 @@
+package customer.users_cap_java.client;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One {@link IasHttpClient} per configured tenant, in configuration order.
+ */
+@Component
+public class IasClientRegistry {
+
+    private final Map<String, IasHttpClient> clients = new LinkedHashMap<>();
+
+    public IasClientRegistry(IasTenantProperties properties) {
+        for (IasTenantProperties.Tenant tenant : properties.getTenants()) {
+            if (tenant.getId() == null || tenant.getId().isEmpty() || tenant.getUrl() == null) {
+                throw new IllegalStateException("Every entry under ias.tenants needs an id and a url");
+            }
+            if (clients.putIfAbsent(tenant.getId(), new IasHttpClient(tenant)) != null) {
+                throw new IllegalStateException("Duplicate IAS tenant id '" + tenant.getId() + "'");
+            }
+        }
+        if (clients.isEmpty()) {
+            throw new IllegalStateException("No IAS tenant configured under ias.tenants");
+        }
+        System.out.println("[SYNC] IAS tenants: " + clients.keySet());
+    }
+
+    public IasHttpClient get(String tenantId) {
+        IasHttpClient client = clients.get(tenantId);
+        if (client == null) {
+            throw new IllegalArgumentException("Unknown IAS tenant '" + tenantId + "'");
+        }
+        return client;
+    }
+
+    /**
+     * Like {@link #get(String)}, falling back to the default tenant when none is given.
+     */
+    public IasHttpClient forTenant(String tenantId) {
+        return tenantId == null || tenantId.isEmpty() ? get(defaultTenantId()) : get(tenantId);
+    }
+
+    public String defaultTenantId() {
+        return clients.keySet().iterator().next();
+    }
+
+    public Set<String> tenantIds() {
+        return clients.keySet();
+    }
+
+    public Collection<IasHttpClient> all() {
+        return clients.values();
+    }
+}
@@ -1,50 +1,103 @@
 package customer.users_cap_java.client;
 
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.ObjectReader;
+import customer.users_cap_java.client.scim.ScimGroup;
+import customer.users_cap_java.client.scim.ScimJson;
+import customer.users_cap_java.client.scim.ScimListResponse;
+import customer.users_cap_java.client.scim.ScimUser;
 
-@Component
+/**
+ * SCIM client for one IAS tenant. Each instance has its own connection pool and
+ * its own limits on concurrent requests and request rate, so tenants cannot
+ * starve each other. Instances are created by {@link IasClientRegistry}.
+ */
 public class IasHttpClient {
 
+    private final String tenantId;
     private final HttpClient client;
     private final String baseUrl;
     private final String authHeader;
 
-    public IasHttpClient(
-            @Value("https://a0adggohp.trial-accounts.ondemand.com/scim") String tenant,
-            @Value("f8d01d08-7847-4554-a995-2652d2e3581e") String clientId,
-            @Value("YjaC@:XbEw[TeX2:s?/I/3gQkp-6Nioiy") String clientSecret) {
+    private final Semaphore inFlight;
+    private final long minIntervalNanos;
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+    // Typed reads ask only for what the DTOs bind
+    private static final String USER_PROJECTION =
+            "attributes=" + URLEncoder.encode(ScimJson.USER_ATTRIBUTES, StandardCharsets.UTF_8);
+    private static final String GROUP_PROJECTION =
+            "attributes=" + URLEncoder.encode(ScimJson.GROUP_ATTRIBUTES, StandardCharsets.UTF_8);
+    private static final String GROUP_PAGE_PROJECTION =
+            "attributes=" + URLEncoder.encode(ScimJson.GROUP_ATTRIBUTES_WITHOUT_MEMBERS, StandardCharsets.UTF_8);
+    private static final String GROUP_MEMBERS_PROJECTION =
+            "attributes=" + URLEncoder.encode(ScimJson.GROUP_MEMBER_ATTRIBUTES, StandardCharsets.UTF_8);
+
+    public IasHttpClient(IasTenantProperties.Tenant tenant) {
+        this.tenantId = tenant.getId();
         this.client = HttpClient.newHttpClient();
-        this.baseUrl = tenant;
+        this.baseUrl = tenant.getUrl();
 
-        String creds = clientId + ":" + clientSecret;
+        String creds = tenant.getClientId() + ":" + tenant.getClientSecret();
         String base64 = Base64.getEncoder()
                 .encodeToString(creds.getBytes(StandardCharsets.UTF_8));
 
         this.authHeader = "Basic " + base64;
+        this.inFlight = new Semaphore(Math.max(1, tenant.getMaxConcurrentRequests()), true);
+        this.minIntervalNanos = tenant.getRequestsPerSecond() > 0
+                ? TimeUnit.SECONDS.toNanos(1) / tenant.getRequestsPerSecond()
+                : 0;
+    }
+
+    public String getTenantId() {
+        return tenantId;
     }
 
     public String getUsers() throws Exception {
         return request("GET", "/Users", null);
     }
 
+    public ScimListResponse<ScimUser> getUsersPage(int startIndex, int count) throws Exception {
+        return read("/Users?startIndex=" + startIndex + "&count=" + count + "&" + USER_PROJECTION, ScimJson.USER_PAGE, null);
+    }
+
+    /**
+     * Conditional read: returns null (304, nothing parsed) when the user still has {@code version}.
+     */
+    public ScimUser getUserResource(String userId, String version) throws Exception {
+        return read("/Users/" + userId + "?" + USER_PROJECTION, ScimJson.USER, version);
+    }
+
     public String getUser(String userId) throws Exception {
         return request("GET", "/Users/" + userId, null);
     }
 
-    public String createUser(String userJson) throws Exception {
-        return request("POST", "/Users", userJson);
+    public String createUser(byte[] userJson) throws Exception {
+        return send("POST", "/Users", userJson);
     }
 
-    public String updateUser(String userId, String userJson) throws Exception {
-        return request("PUT", "/Users/" + userId, userJson);
+    public String updateUser(String userId, byte[] userJson) throws Exception {
+        return send("PUT", "/Users/" + userId, userJson);
+    }
+
+    /**
+     * PATCH guarded by If-Match when {@code version} is known; a 412 means the user changed in IAS since.
+     * Returns the new ETag, or null if IAS did not send one. The response body is not parsed.
+     */
+    public String patchUser(String userId, byte[] patchJson, String version) throws Exception {
+        return etag(exchange("PATCH", "/Users/" + userId, patchJson, version));
     }
 
     public String deleteUser(String userId) throws Exception {
@@ -59,16 +112,37 @@ public class IasHttpClient {
         return request("GET", "/Groups", null);
     }
 
+    /**
+     * Group attributes only; members are left out.
+     */
+    public ScimListResponse<ScimGroup> getGroupsPage(int startIndex, int count) throws Exception {
+        return read("/Groups?startIndex=" + startIndex + "&count=" + count + "&" + GROUP_PAGE_PROJECTION, ScimJson.GROUP_PAGE, null);
+    }
+
+    /**
+     * Only the ID and member IDs of each group, for membership diffs.
+     */
+    public ScimListResponse<ScimGroup> getGroupMembersPage(int startIndex, int count) throws Exception {
+        return read("/Groups?startIndex=" + startIndex + "&count=" + count + "&" + GROUP_MEMBERS_PROJECTION, ScimJson.GROUP_PAGE, null);
+    }
+
+    /**
+     * Conditional read: returns null (304, nothing parsed) when the group still has {@code version}.
+     */
+    public ScimGroup getGroupResource(String groupId, String version) throws Exception {
+        return read("/Groups/" + groupId + "?" + GROUP_PROJECTION, ScimJson.GROUP, version);
+    }
+
     public String getGroup(String groupId) throws Exception {
         return request("GET", "/Groups/" + groupId, null);
     }
 
-    public String createGroup(String groupJson) throws Exception {
-        return request("POST", "/Groups", groupJson);
+    public String createGroup(byte[] groupJson) throws Exception {
+        return send("POST", "/Groups", groupJson);
     }
 
-    public String updateGroup(String groupId, String groupJson) throws Exception {
-        return request("PUT", "/Groups/" + groupId, groupJson);
+    public String updateGroup(String groupId, byte[] groupJson) throws Exception {
+        return send("PUT", "/Groups/" + groupId, groupJson);
     }
 
     public String deleteGroup(String groupId) throws Exception {
@@ -79,14 +153,97 @@ public class IasHttpClient {
         return result;
     }
 
-    public String patchGroup(String groupId, String patchJson) throws Exception {
-        return request("PATCH", "/Groups/" + groupId, patchJson);
+    /**
+     * Like {@link #patchUser(String, byte[], String)}, for groups.
+     */
+    public String patchGroup(String groupId, byte[] patchJson, String version) throws Exception {
+        return etag(exchange("PATCH", "/Groups/" + groupId, patchJson, version));
     }
 
     private String request(String method, String path, String body) throws Exception {
+        return send(method, path, body != null ? body.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * GET that binds the response body as it streams in, without buffering it as a String.
+     * The body is requested gzip-compressed and inflated while it is parsed.
+     * With {@code ifNoneMatch}, a 304 returns null without reading a body.
+     */
+    private <T> T read(String path, ObjectReader reader, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(url(path)))
+                .header("Authorization", authHeader)
+                .header("Accept", "application/scim+json")
+                .header("Accept-Encoding", "gzip")
+                .GET();
+        if (ifNoneMatch != null) {
+            requestBuilder.header("If-None-Match", ifNoneMatch);
+        }
+
+        HttpResponse<InputStream> response = execute(requestBuilder.build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream body = decoded(response)) {
+            if (response.statusCode() == 304) {
+                return null;
+            }
+            if (response.statusCode() / 100 != 2) {
+                String error = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                System.err.println("[ERROR] IasHttpClient.read - Non-2xx status code: " + response.statusCode());
+                throw new IasHttpException(response.statusCode(), error);
+            }
+            return reader.readValue(body);
+        }
+    }
+
+    private static InputStream decoded(HttpResponse<InputStream> response) throws Exception {
+        boolean gzip = response.headers().firstValue("Content-Encoding")
+                .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                .orElse(false);
+        return gzip && response.statusCode() != 304
+                ? new GZIPInputStream(response.body(), 8192)
+                : response.body();
+    }
+
+    /**
+     * Sends within this tenant's limits: at most maxConcurrentRequests in flight,
+     * and requests started no faster than requestsPerSecond.
+     */
+    private <T> HttpResponse<T> execute(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws Exception {
+        inFlight.acquire();
+        try {
+            pace();
+            return client.send(request, handler);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private void pace() throws InterruptedException {
+        if (minIntervalNanos == 0) return;
+        long now = System.nanoTime();
+        long previous = nextSlot.getAndAccumulate(now, (slot, t) -> Math.max(slot, t) + minIntervalNanos);
+        long wait = Math.max(previous, now) - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private String url(String path) {
         // Handle trailing slash in baseUrl
         String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
-        String fullUrl = base + path;
+        return base + path;
+    }
+
+    private String send(String method, String path, byte[] body) throws Exception {
+        return exchange(method, path, body, null).body();
+    }
+
+    private static String etag(HttpResponse<?> response) {
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    private HttpResponse<String> exchange(String method, String path, byte[] body, String ifMatch) throws Exception {
+        String fullUrl = url(path);
         
         System.out.println("[DEBUG] IasHttpClient.request - Method: " + method + ", URL: " + fullUrl);
         
@@ -95,10 +252,13 @@ public class IasHttpClient {
                 .header("Authorization", authHeader)
                 .header("Accept", "application/scim+json")
                 .header("Content-Type", "application/scim+json");
+        if (ifMatch != null) {
+            requestBuilder.header("If-Match", ifMatch);
+        }
 
         if (body != null) {
-            requestBuilder.method(method, HttpRequest.BodyPublishers.ofString(body));
-            System.out.println("[DEBUG] IasHttpClient.request - Body: " + body);
+            requestBuilder.method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+            System.out.println("[DEBUG] IasHttpClient.request - Body: " + new String(body, StandardCharsets.UTF_8));
         } else {
             requestBuilder.method(method, HttpRequest.BodyPublishers.noBody());
             System.out.println("[DEBUG] IasHttpClient.request - No body");
@@ -107,17 +267,16 @@ public class IasHttpClient {
         HttpRequest request = requestBuilder.build();
 
         System.out.println("[DEBUG] IasHttpClient.request - Sending request...");
-        HttpResponse<String> response =
-                client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = execute(request, HttpResponse.BodyHandlers.ofString());
 
         System.out.println("[DEBUG] IasHttpClient.request - Response status: " + response.statusCode());
         System.out.println("[DEBUG] IasHttpClient.request - Response body: " + response.body());
 
         if (response.statusCode() / 100 != 2) {
             System.err.println("[ERROR] IasHttpClient.request - Non-2xx status code: " + response.statusCode());
-            throw new RuntimeException("HTTP " + response.statusCode() + ": " + response.body());
+            throw new IasHttpException(response.statusCode(), response.body());
         }
 
-        return response.body();
+        return response;
     }
 }
@@ -0,0 +1,29 @@
+package customer.users_cap_java.client;
+
+/**
+ * Non-2xx response from the IAS SCIM API.
+ */
+public class IasHttpException extends RuntimeException {
+
+    private final int statusCode;
+
+    public IasHttpException(int statusCode, String body) {
+        super("HTTP " + statusCode + ": " + body);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+
+    /**
+     * The If-Match version no longer matches: the resource was changed in IAS.
+     */
+    public boolean isPreconditionFailed() {
+        return statusCode == 412;
+    }
+}
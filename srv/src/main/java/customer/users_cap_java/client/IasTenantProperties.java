@@ -0,0 +1,49 @@
+package customer.users_cap_java.client;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IAS tenants replicated by this app, bound from {@code ias.tenants}.
+ * The first entry is the default tenant for requests that do not name one.
+ */
+@Component
+@ConfigurationProperties(prefix = "ias")
+public class IasTenantProperties {
+
+    private List<Tenant> tenants = new ArrayList<>();
+
+    public List<Tenant> getTenants() { return tenants; }
+    public void setTenants(List<Tenant> tenants) { this.tenants = tenants; }
+
+    public static class Tenant {
+
+        private String id;
+        private String url;
+        private String clientId;
+        private String clientSecret;
+        private int maxConcurrentRequests = 4;
+        private int requestsPerSecond = 10;
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+
+        public String getClientId() { return clientId; }
+        public void setClientId(String clientId) { this.clientId = clientId; }
+
+        public String getClientSecret() { return clientSecret; }
+        public void setClientSecret(String clientSecret) { this.clientSecret = clientSecret; }
+
+        public int getMaxConcurrentRequests() { return maxConcurrentRequests; }
+        public void setMaxConcurrentRequests(int maxConcurrentRequests) { this.maxConcurrentRequests = maxConcurrentRequests; }
+
+        public int getRequestsPerSecond() { return requestsPerSecond; }
+        public void setRequestsPerSecond(int requestsPerSecond) { this.requestsPerSecond = requestsPerSecond; }
+    }
+}
@@ -0,0 +1,58 @@
+package customer.users_cap_java.client.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The subset of a SCIM group resource the replica consumes. Everything else is skipped while parsing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimGroup {
+
+    public static final String CUSTOM_EXTENSION = "urn:sap:cloud:scim:schemas:extension:custom:2.0:Group";
+
+    private String id;
+    private String displayName;
+    private List<Member> members;
+    private ScimMeta meta;
+    private CustomExtension customExtension;
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getDisplayName() { return displayName; }
+    public void setDisplayName(String displayName) { this.displayName = displayName; }
+
+    public List<Member> getMembers() { return members; }
+    public void setMembers(List<Member> members) { this.members = members; }
+
+    public ScimMeta getMeta() { return meta; }
+    public void setMeta(ScimMeta meta) { this.meta = meta; }
+
+    @JsonProperty(CUSTOM_EXTENSION)
+    public CustomExtension getCustomExtension() { return customExtension; }
+    @JsonProperty(CUSTOM_EXTENSION)
+    public void setCustomExtension(CustomExtension customExtension) { this.customExtension = customExtension; }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Member {
+        private String value;
+
+        public String getValue() { return value; }
+        public void setValue(String value) { this.value = value; }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class CustomExtension {
+        private String name;
+        private String description;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public String getDescription() { return description; }
+        public void setDescription(String description) { this.description = description; }
+    }
+}
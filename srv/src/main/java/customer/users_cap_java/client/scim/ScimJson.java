@@ -0,0 +1,107 @@
+package customer.users_cap_java.client.scim;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared mapper and pre-built readers for SCIM resources. Blackbird replaces
+ * reflective setter calls with generated lambdas, and the readers resolve their
+ * deserializers once instead of per call.
+ */
+public final class ScimJson {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new BlackbirdModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static final ObjectReader USER = MAPPER.readerFor(ScimUser.class);
+    public static final ObjectReader GROUP = MAPPER.readerFor(ScimGroup.class);
+    public static final ObjectReader USER_PAGE =
+            MAPPER.readerFor(new TypeReference<ScimListResponse<ScimUser>>() {});
+    public static final ObjectReader GROUP_PAGE =
+            MAPPER.readerFor(new TypeReference<ScimListResponse<ScimGroup>>() {});
+
+    /**
+     * SCIM "attributes" parameter values: exactly the paths the DTOs bind, so IAS
+     * leaves out everything the mappers would skip anyway.
+     */
+    public static final String USER_ATTRIBUTES = attributesOf(ScimUser.class);
+    public static final String GROUP_ATTRIBUTES = attributesOf(ScimGroup.class);
+
+    /**
+     * Group attributes without the member list, for reads that only map group attributes;
+     * members are the bulk of a group payload.
+     */
+    public static final String GROUP_ATTRIBUTES_WITHOUT_MEMBERS = withoutPrefix(GROUP_ATTRIBUTES, "members");
+
+    /**
+     * Just enough of a group to diff its memberships.
+     */
+    public static final String GROUP_MEMBER_ATTRIBUTES = "id,members.value";
+
+    private ScimJson() {
+    }
+
+    /**
+     * Comma-separated attribute paths of a DTO, e.g. "name.givenName" or
+     * "urn:...:sap:2.0:User:validFrom". Nested DTOs of this package are expanded.
+     */
+    static String attributesOf(Class<?> type) {
+        List<String> paths = new ArrayList<>();
+        collectAttributes(MAPPER.constructType(type), "", paths);
+        return String.join(",", paths);
+    }
+
+    private static String withoutPrefix(String attributes, String prefix) {
+        List<String> kept = new ArrayList<>();
+        for (String path : attributes.split(",")) {
+            if (!path.equals(prefix) && !path.startsWith(prefix + ".")) {
+                kept.add(path);
+            }
+        }
+        return String.join(",", kept);
+    }
+
+    private static void collectAttributes(JavaType type, String prefix, List<String> paths) {
+        BeanDescription bean = MAPPER.getDeserializationConfig().introspect(type);
+        for (BeanPropertyDefinition property : bean.findProperties()) {
+            String path;
+            if (prefix.isEmpty()) {
+                path = property.getName();
+            } else {
+                // Attributes of a schema extension are addressed as "<urn>:<attribute>"
+                path = prefix + (prefix.startsWith("urn:") ? ":" : ".") + property.getName();
+            }
+
+            JavaType propertyType = property.getPrimaryType();
+            if (propertyType.isCollectionLikeType()) {
+                propertyType = propertyType.getContentType();
+            }
+            if (propertyType.getRawClass().getPackage() == ScimJson.class.getPackage()) {
+                collectAttributes(propertyType, path, paths);
+            } else {
+                paths.add(path);
+            }
+        }
+    }
+
+    /**
+     * Best-effort JSON for diagnostics (e.g. the sync quarantine).
+     */
+    public static String toJson(Object resource) {
+        try {
+            return MAPPER.writeValueAsString(resource);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
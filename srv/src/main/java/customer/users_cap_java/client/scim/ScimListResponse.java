@@ -0,0 +1,29 @@
+package customer.users_cap_java.client.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimListResponse<T> {
+
+    private int totalResults;
+    private int startIndex;
+    private int itemsPerPage;
+    private List<T> resources = List.of();
+
+    public int getTotalResults() { return totalResults; }
+    public void setTotalResults(int totalResults) { this.totalResults = totalResults; }
+
+    public int getStartIndex() { return startIndex; }
+    public void setStartIndex(int startIndex) { this.startIndex = startIndex; }
+
+    public int getItemsPerPage() { return itemsPerPage; }
+    public void setItemsPerPage(int itemsPerPage) { this.itemsPerPage = itemsPerPage; }
+
+    @JsonProperty("Resources")
+    public List<T> getResources() { return resources; }
+    @JsonProperty("Resources")
+    public void setResources(List<T> resources) { this.resources = resources != null ? resources : List.of(); }
+}
@@ -0,0 +1,16 @@
+package customer.users_cap_java.client.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimMeta {
+
+    private String lastModified;
+    private String version;
+
+    public String getLastModified() { return lastModified; }
+    public void setLastModified(String lastModified) { this.lastModified = lastModified; }
+
+    public String getVersion() { return version; }
+    public void setVersion(String version) { this.version = version; }
+}
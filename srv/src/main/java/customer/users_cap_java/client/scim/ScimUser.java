@@ -0,0 +1,113 @@
+package customer.users_cap_java.client.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The subset of a SCIM user resource the replica consumes. Everything else is skipped while parsing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimUser {
+
+    public static final String SAP_EXTENSION = "urn:ietf:params:scim:schemas:extension:sap:2.0:User";
+    public static final String ENTERPRISE_EXTENSION = "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+
+    private String id;
+    private String userName;
+    private Name name;
+    private List<Email> emails;
+    private Boolean active;
+    private String userType;
+    private List<Address> addresses;
+    private ScimMeta meta;
+    private SapExtension sapExtension;
+    private EnterpriseExtension enterpriseExtension;
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getUserName() { return userName; }
+    public void setUserName(String userName) { this.userName = userName; }
+
+    public Name getName() { return name; }
+    public void setName(Name name) { this.name = name; }
+
+    public List<Email> getEmails() { return emails; }
+    public void setEmails(List<Email> emails) { this.emails = emails; }
+
+    public Boolean getActive() { return active; }
+    public void setActive(Boolean active) { this.active = active; }
+
+    public String getUserType() { return userType; }
+    public void setUserType(String userType) { this.userType = userType; }
+
+    public List<Address> getAddresses() { return addresses; }
+    public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
+
+    public ScimMeta getMeta() { return meta; }
+    public void setMeta(ScimMeta meta) { this.meta = meta; }
+
+    @JsonProperty(SAP_EXTENSION)
+    public SapExtension getSapExtension() { return sapExtension; }
+    @JsonProperty(SAP_EXTENSION)
+    public void setSapExtension(SapExtension sapExtension) { this.sapExtension = sapExtension; }
+
+    @JsonProperty(ENTERPRISE_EXTENSION)
+    public EnterpriseExtension getEnterpriseExtension() { return enterpriseExtension; }
+    @JsonProperty(ENTERPRISE_EXTENSION)
+    public void setEnterpriseExtension(EnterpriseExtension enterpriseExtension) { this.enterpriseExtension = enterpriseExtension; }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Name {
+        private String givenName;
+        private String familyName;
+
+        public String getGivenName() { return givenName; }
+        public void setGivenName(String givenName) { this.givenName = givenName; }
+
+        public String getFamilyName() { return familyName; }
+        public void setFamilyName(String familyName) { this.familyName = familyName; }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Email {
+        private String value;
+
+        public String getValue() { return value; }
+        public void setValue(String value) { this.value = value; }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Address {
+        private String country;
+        private String locality;
+
+        public String getCountry() { return country; }
+        public void setCountry(String country) { this.country = country; }
+
+        public String getLocality() { return locality; }
+        public void setLocality(String locality) { this.locality = locality; }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SapExtension {
+        private String validFrom;
+        private String validTo;
+
+        public String getValidFrom() { return validFrom; }
+        public void setValidFrom(String validFrom) { this.validFrom = validFrom; }
+
+        public String getValidTo() { return validTo; }
+        public void setValidTo(String validTo) { this.validTo = validTo; }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class EnterpriseExtension {
+        private String organization;
+
+        public String getOrganization() { return organization; }
+        public void setOrganization(String organization) { this.organization = organization; }
+    }
+}
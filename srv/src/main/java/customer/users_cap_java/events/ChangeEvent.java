@@ -0,0 +1,34 @@
+package customer.users_cap_java.events;
+
+import java.util.Map;
+
+/**
+ * A change to a replica entity. {@code data} carries the new state for upserts and is null for deletes.
+ * Memberships are identified as {@code groupId:userId}.
+ */
+public record ChangeEvent(String entity, String op, String id, Map<String, Object> data) {
+
+    public static final String USERS = "Users";
+    public static final String GROUPS = "Groups";
+    public static final String GROUP_MEMBERS = "GroupMembers";
+
+    public static final String UPSERT = "upsert";
+    public static final String DELETE = "delete";
+
+    public static ChangeEvent upsert(String entity, String id, Map<String, Object> data) {
+        return new ChangeEvent(entity, UPSERT, id, data);
+    }
+
+    public static ChangeEvent delete(String entity, String id) {
+        return new ChangeEvent(entity, DELETE, id, null);
+    }
+
+    public static ChangeEvent memberAdded(String groupId, String userId) {
+        return upsert(GROUP_MEMBERS, groupId + ":" + userId, Map.of("group_ID", groupId, "user_ID", userId));
+    }
+
+    public static ChangeEvent memberRemoved(String groupId, String userId) {
+        return new ChangeEvent(GROUP_MEMBERS, DELETE, groupId + ":" + userId,
+                Map.of("group_ID", groupId, "user_ID", userId));
+    }
+}
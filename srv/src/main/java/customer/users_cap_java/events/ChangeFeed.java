@@ -0,0 +1,238 @@
+package customer.users_cap_java.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory change feed for the admin console.
+ *
+ * Each event is encoded as an SSE frame exactly once and stored in a ring buffer.
+ * Publishing costs the same regardless of how many clients are connected: every
+ * subscriber has its own virtual thread that copies the shared frames from its
+ * cursor. A subscriber that falls a full buffer behind (or resumes from an event
+ * id that has already been overwritten) gets a "reset" event and is closed, so
+ * slow clients cannot make the buffer grow.
+ *
+ * Event ids are "{epoch}-{sequence}", the epoch being fixed per server start. An id
+ * from an earlier start, or one ahead of this server, also gets a reset: the client
+ * may have missed anything published since.
+ *
+ * Subscribers wait on a {@link ReentrantLock} condition rather than a monitor, so a
+ * waiting virtual thread does not pin its carrier thread.
+ */
+@Component
+public class ChangeFeed {
+
+    private static final int CAPACITY = 4096;
+    // Cursor of a subscriber whose resume id this server cannot place
+    private static final long UNKNOWN = -1;
+    private static final long HEARTBEAT_MS = 25000;
+
+    private static final byte[] HEARTBEAT = ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final byte[][] frames = new byte[CAPACITY][];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private long lastId = 0;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    public void publish(ChangeEvent event) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(event);
+        } catch (Exception e) {
+            System.err.println("[FEED] Cannot encode change event for " + event.entity() + " " + event.id() + ": " + e.getMessage());
+            return;
+        }
+
+        lock.lock();
+        try {
+            long id = ++lastId;
+            frames[slot(id)] = frame(id, "change", json);
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void publishAll(List<ChangeEvent> events) {
+        for (ChangeEvent event : events) {
+            publish(event);
+        }
+    }
+
+    /**
+     * Starts streaming to {@code emitter}, resuming after {@code lastEventId} when it is still buffered.
+     */
+    public void subscribe(ResponseBodyEmitter emitter, String lastEventId) {
+        long cursor;
+        lock.lock();
+        try {
+            cursor = resumePoint(lastEventId, lastId);
+        } finally {
+            lock.unlock();
+        }
+
+        Subscriber subscriber = new Subscriber(emitter, cursor);
+        subscribers.add(subscriber);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+
+        Thread.ofVirtual().name("change-feed-subscriber").start(subscriber::run);
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        wakeAll();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    private final class Subscriber {
+
+        private final ResponseBodyEmitter emitter;
+        private long cursor;
+        private volatile boolean open = true;
+
+        Subscriber(ResponseBodyEmitter emitter, long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+
+        void close() {
+            open = false;
+            subscribers.remove(this);
+            wakeAll();
+        }
+
+        void run() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                while (open && !closed) {
+                    boolean reset = false;
+                    batch.clear();
+
+                    lock.lock();
+                    try {
+                        if (lastId == cursor) {
+                            published.await(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                        }
+                        if (cursor == UNKNOWN || lastId - cursor > CAPACITY) {
+                            reset = true;
+                            cursor = lastId;
+                        } else {
+                            for (long id = cursor + 1; id <= lastId; id++) {
+                                batch.add(frames[slot(id)]);
+                            }
+                            cursor = lastId;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    if (reset) {
+                        // Events were overwritten before this client read them, or it resumed
+                        // from another server start: it must reload
+                        send(frame(cursor, "reset", "{}".getBytes(StandardCharsets.UTF_8)));
+                        emitter.complete();
+                        break;
+                    }
+                    if (batch.isEmpty()) {
+                        send(HEARTBEAT);
+                    }
+                    for (byte[] frame : batch) {
+                        send(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Client went away
+                emitter.completeWithError(e);
+            } finally {
+                close();
+            }
+        }
+
+        private void send(byte[] frame) throws Exception {
+            emitter.send(frame, MediaType.TEXT_EVENT_STREAM);
+        }
+    }
+
+    private void wakeAll() {
+        lock.lock();
+        try {
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int slot(long id) {
+        return (int) (id % CAPACITY);
+    }
+
+    private byte[] frame(long id, String event, byte[] json) {
+        byte[] head = ("id: " + epoch + "-" + id + "\nevent: " + event + "\ndata: ").getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[head.length + json.length + 2];
+        System.arraycopy(head, 0, frame, 0, head.length);
+        System.arraycopy(json, 0, frame, head.length, json.length);
+        frame[frame.length - 2] = '\n';
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+
+    /**
+     * Resume point for a client. A first connect starts at the live edge. An id older
+     * than the buffer makes the subscriber fall behind and receive a reset; an id from
+     * another server start, ahead of this one or malformed returns {@link #UNKNOWN},
+     * which resets right away.
+     */
+    private long resumePoint(String lastEventId, long current) {
+        if (lastEventId == null || lastEventId.isEmpty()) {
+            return current;
+        }
+        String prefix = epoch + "-";
+        String value = lastEventId.trim();
+        if (!value.startsWith(prefix)) {
+            return UNKNOWN;
+        }
+        try {
+            long id = Long.parseLong(value.substring(prefix.length()));
+            return id >= 0 && id <= current ? id : UNKNOWN;
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package customer.users_cap_java.events;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Server-Sent Events endpoint for replica changes. Browsers resume via the
+ * standard Last-Event-ID header when EventSource reconnects.
+ */
+@RestController
+public class ChangeFeedController {
+
+    private final ChangeFeed changeFeed;
+
+    @Autowired
+    public ChangeFeedController(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    @GetMapping(path = "/events/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseBodyEmitter changes(
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        // No async timeout: the subscriber sends heartbeats and ends on disconnect
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        changeFeed.subscribe(emitter, lastEventId);
+        return emitter;
+    }
+}
@@ -0,0 +1,342 @@
+package customer.users_cap_java.service;
+
+import com.sap.cds.Row;
+import com.sap.cds.ql.CQL;
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.persistence.PersistenceService;
+import customer.users_cap_java.client.IasClientRegistry;
+import customer.users_cap_java.client.IasHttpClient;
+import customer.users_cap_java.client.scim.ScimGroup;
+import customer.users_cap_java.client.scim.ScimListResponse;
+import customer.users_cap_java.client.scim.ScimUser;
+import cds.gen.iasreplicaservice.AttributeDiff;
+import cds.gen.iasreplicaservice.DriftSample;
+import cds.gen.iasreplicaservice.EntityDrift;
+import cds.gen.iasreplicaservice.GroupMembers;
+import cds.gen.iasreplicaservice.GroupMembers_;
+import cds.gen.iasreplicaservice.Groups_;
+import cds.gen.iasreplicaservice.Users_;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Read-only comparison of one IAS tenant against its replica rows, using the
+ * same fetch and mapping path as {@link IasSyncScheduler} but never writing.
+ *
+ * Users and groups are reduced to one hash per compared attribute, keyed by ID
+ * in a sorted map, and the replica is streamed in ID order against it; only
+ * the digests are held in memory. Memberships are compared one page of groups
+ * at a time. The three comparisons run in parallel.
+ *
+ * The digest map is O(n) in the tenant's users or groups, deliberately: IAS pages
+ * by startIndex in its own order and does not sort by ID, so the two sides cannot
+ * be merged as sorted streams. A few ints per resource is the bound instead.
+ */
+@Component
+public class DriftReportService {
+
+    private static final int IAS_PAGE_SIZE = 100;
+    private static final int DB_PAGE_SIZE = 1000;
+    private static final int MAX_SAMPLES = 10;
+
+    static final String MISSING_IN_REPLICA = "MissingInReplica";
+    static final String MISSING_IN_IAS = "MissingInIas";
+    static final String CHANGED = "Changed";
+
+    private static final List<String> USER_ATTRIBUTES = ScimResourceMapper.USER_ATTRIBUTES;
+    private static final List<String> GROUP_ATTRIBUTES = ScimResourceMapper.GROUP_ATTRIBUTES;
+
+    @Autowired
+    private IasClientRegistry clients;
+
+    @Autowired
+    private PersistenceService db;
+
+    @Autowired
+    private ScimResourceMapper mapper;
+
+    /**
+     * @param tenantId tenant to compare, or null for the default tenant
+     */
+    public List<EntityDrift> run(String tenantId) throws Exception {
+        IasHttpClient iasClient = clients.forTenant(tenantId);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<EntityDrift> users = executor.submit(() -> compareUsers(iasClient));
+            Future<EntityDrift> groups = executor.submit(() -> compareGroups(iasClient));
+            Future<EntityDrift> memberships = executor.submit(() -> compareMemberships(iasClient));
+            return List.of(users.get(), groups.get(), memberships.get());
+        }
+    }
+
+    // ========== USERS / GROUPS ==========
+
+    private EntityDrift compareUsers(IasHttpClient iasClient) throws Exception {
+        TreeMap<String, int[]> ias = new TreeMap<>();
+        int unmappable = 0;
+
+        int startIndex = 1;
+        while (true) {
+            ScimListResponse<ScimUser> page = iasClient.getUsersPage(startIndex, IAS_PAGE_SIZE);
+            if (page.getResources().isEmpty()) break;
+            for (ScimUser resource : page.getResources()) {
+                try {
+                    Map<String, Object> user = mapper.mapUser(resource);
+                    ias.put(resource.getId(), digest(user, USER_ATTRIBUTES));
+                } catch (Exception e) {
+                    unmappable++;
+                }
+            }
+            startIndex += page.getResources().size();
+            if (startIndex > page.getTotalResults()) break;
+        }
+
+        return compareWithReplica(iasClient.getTenantId(), "Users", Users_.CDS_NAME, USER_ATTRIBUTES, ias, unmappable);
+    }
+
+    private EntityDrift compareGroups(IasHttpClient iasClient) throws Exception {
+        TreeMap<String, int[]> ias = new TreeMap<>();
+        int unmappable = 0;
+
+        int startIndex = 1;
+        while (true) {
+            ScimListResponse<ScimGroup> page = iasClient.getGroupsPage(startIndex, IAS_PAGE_SIZE);
+            if (page.getResources().isEmpty()) break;
+            for (ScimGroup resource : page.getResources()) {
+                try {
+                    Map<String, Object> group = mapper.mapGroup(resource);
+                    ias.put(resource.getId(), digest(group, GROUP_ATTRIBUTES));
+                } catch (Exception e) {
+                    unmappable++;
+                }
+            }
+            startIndex += page.getResources().size();
+            if (startIndex > page.getTotalResults()) break;
+        }
+
+        return compareWithReplica(iasClient.getTenantId(), "Groups", Groups_.CDS_NAME, GROUP_ATTRIBUTES, ias, unmappable);
+    }
+
+    /**
+     * Streams the replica entity in ID order (keyset paging) and matches each row against the IAS digests.
+     */
+    private EntityDrift compareWithReplica(String tenant, String entity, String cdsName, List<String> attributes,
+            TreeMap<String, int[]> ias, int unmappable) {
+        Tally tally = new Tally(entity, attributes);
+        tally.iasCount = ias.size() + unmappable;
+        tally.unmappable = unmappable;
+
+        String[] columns = new String[attributes.size() + 1];
+        columns[0] = "ID";
+        for (int i = 0; i < attributes.size(); i++) {
+            columns[i + 1] = attributes.get(i);
+        }
+
+        String after = null;
+        while (true) {
+            Select<?> select = Select.from(cdsName)
+                    .columns(columns)
+                    .orderBy(c -> c.get("ID").asc())
+                    .limit(DB_PAGE_SIZE);
+            if (after != null) {
+                String lastId = after;
+                select.where(c -> c.get("tenant").eq(tenant).and(c.get("ID").gt(lastId)));
+            } else {
+                select.where(c -> c.get("tenant").eq(tenant));
+            }
+
+            List<Row> rows = db.run(select).list();
+            for (Row row : rows) {
+                String id = row.get("ID").toString();
+                tally.replicaCount++;
+
+                int[] iasDigest = ias.remove(id);
+                if (iasDigest == null) {
+                    tally.missingInIas(id);
+                    continue;
+                }
+
+                int[] replicaDigest = digest(row, attributes);
+                List<String> differing = new ArrayList<>();
+                for (int i = 0; i < attributes.size(); i++) {
+                    if (iasDigest[i] != replicaDigest[i]) {
+                        tally.attributeCounts[i]++;
+                        differing.add(attributes.get(i));
+                    }
+                }
+                if (!differing.isEmpty()) {
+                    tally.changed(id, differing);
+                }
+            }
+
+            if (rows.size() < DB_PAGE_SIZE) break;
+            after = rows.get(rows.size() - 1).get("ID").toString();
+        }
+
+        // Whatever is left was never seen in the replica
+        for (String id : ias.keySet()) {
+            tally.missingInReplica(id);
+        }
+
+        return tally.toEntityDrift();
+    }
+
+    // ========== MEMBERSHIPS ==========
+
+    private EntityDrift compareMemberships(IasHttpClient iasClient) throws Exception {
+        Tally tally = new Tally("GroupMembers", List.of());
+        Set<String> iasGroupIds = new HashSet<>();
+
+        int startIndex = 1;
+        while (true) {
+            ScimListResponse<ScimGroup> page = iasClient.getGroupMembersPage(startIndex, IAS_PAGE_SIZE);
+            if (page.getResources().isEmpty()) break;
+
+            List<String> pageGroupIds = new ArrayList<>();
+            Set<String> iasKeys = new HashSet<>();
+            for (ScimGroup group : page.getResources()) {
+                if (group.getId() == null) continue;
+                pageGroupIds.add(group.getId());
+                if (group.getMembers() == null) continue;
+                for (ScimGroup.Member member : group.getMembers()) {
+                    if (member.getValue() != null) {
+                        iasKeys.add(group.getId() + ":" + member.getValue());
+                    }
+                }
+            }
+            iasGroupIds.addAll(pageGroupIds);
+            tally.iasCount += iasKeys.size();
+
+            var dbResult = db.run(Select.from(GroupMembers_.class)
+                    .columns(m -> m.group_ID(), m -> m.user_ID())
+                    .where(m -> m.tenant().eq(iasClient.getTenantId()).and(m.group_ID().in(pageGroupIds))));
+            for (GroupMembers m : dbResult.listOf(GroupMembers.class)) {
+                String key = m.getGroupId() + ":" + m.getUserId();
+                tally.replicaCount++;
+                if (!iasKeys.remove(key)) {
+                    tally.missingInIas(key);
+                }
+            }
+            for (String key : iasKeys) {
+                tally.missingInReplica(key);
+            }
+
+            startIndex += page.getResources().size();
+            if (startIndex > page.getTotalResults()) break;
+        }
+
+        // Memberships of groups that IAS no longer has
+        var perGroup = db.run(Select.from(GroupMembers_.class)
+                .columns(m -> m.group_ID().as("groupId"), m -> CQL.count().as("memberCount"))
+                .where(m -> m.tenant().eq(iasClient.getTenantId()))
+                .groupBy(m -> m.group_ID()));
+        for (Row row : perGroup) {
+            String groupId = row.get("groupId") != null ? row.get("groupId").toString() : null;
+            if (groupId == null || iasGroupIds.contains(groupId)) continue;
+            int count = ((Number) row.get("memberCount")).intValue();
+            tally.replicaCount += count;
+            tally.missingInIas += count;
+            tally.sample(groupId + ":*", MISSING_IN_IAS, count + " membership(s) of a group missing in IAS");
+        }
+
+        return tally.toEntityDrift();
+    }
+
+    // ========== HELPERS ==========
+
+    private static int[] digest(Map<String, ?> data, List<String> attributes) {
+        int[] digest = new int[attributes.size()];
+        for (int i = 0; i < attributes.size(); i++) {
+            digest[i] = hash(data.get(attributes.get(i)));
+        }
+        return digest;
+    }
+
+    /**
+     * Treats null and "" alike, and compares timestamps at second precision (DateTime columns).
+     * Both sides already carry timestamps as {@link Instant}: the mapper parses them and the
+     * replica reads them typed, so strings are hashed as they are.
+     */
+    private static int hash(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Instant instant) {
+            return instant.truncatedTo(ChronoUnit.SECONDS).hashCode();
+        }
+        String text = value.toString();
+        return text.isEmpty() ? 0 : text.hashCode();
+    }
+
+    private static final class Tally {
+
+        final String entity;
+        final List<String> attributes;
+        final int[] attributeCounts;
+        final List<DriftSample> samples = new ArrayList<>();
+        int iasCount;
+        int replicaCount;
+        int missingInReplica;
+        int missingInIas;
+        int changed;
+        int unmappable;
+
+        Tally(String entity, List<String> attributes) {
+            this.entity = entity;
+            this.attributes = attributes;
+            this.attributeCounts = new int[attributes.size()];
+        }
+
+        void missingInReplica(String id) {
+            missingInReplica++;
+            sample(id, MISSING_IN_REPLICA, null);
+        }
+
+        void missingInIas(String id) {
+            missingInIas++;
+            sample(id, MISSING_IN_IAS, null);
+        }
+
+        void changed(String id, List<String> differing) {
+            changed++;
+            sample(id, CHANGED, String.join(",", differing));
+        }
+
+        void sample(String id, String kind, String detail) {
+            if (samples.size() >= MAX_SAMPLES) return;
+            DriftSample sample = DriftSample.create();
+            sample.setId(id);
+            sample.setKind(kind);
+            sample.setDetail(detail);
+            samples.add(sample);
+        }
+
+        EntityDrift toEntityDrift() {
+            EntityDrift drift = EntityDrift.create();
+            drift.setEntity(entity);
+            drift.setIasCount(iasCount);
+            drift.setReplicaCount(replicaCount);
+            drift.setMissingInReplica(missingInReplica);
+            drift.setMissingInIas(missingInIas);
+            drift.setChanged(changed);
+            drift.setUnmappable(unmappable);
+
+            List<AttributeDiff> diffs = new ArrayList<>();
+            for (int i = 0; i < attributes.size(); i++) {
+                if (attributeCounts[i] == 0) continue;
+                AttributeDiff diff = AttributeDiff.create();
+                diff.setAttribute(attributes.get(i));
+                diff.setCount(attributeCounts[i]);
+                diffs.add(diff);
+            }
+            drift.setAttributes(diffs);
+            drift.setSamples(samples);
+            return drift;
+        }
+    }
+}
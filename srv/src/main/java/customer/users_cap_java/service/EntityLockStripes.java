@@ -0,0 +1,205 @@
+package customer.users_cap_java.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates the IAS -> replica sync with interactive write-back, per entity
+ * instead of globally.
+ *
+ * Write-back records the rows it changes as written, under their stripes, before
+ * its IAS calls and again once its change set commits. The sync applies a fetched
+ * resource only if it can take the row's stripe and the row was not written since
+ * the fetch; otherwise it leaves the row alone and re-reads it later. Stripes are
+ * only held around local statements and are taken without waiting: a caller that
+ * finds one busy releases everything it holds, backs off and tries again, so
+ * callers cannot deadlock. Rows hash onto a fixed number
+ * of locks, so memory does not grow with the number of rows.
+ */
+@Component
+public class EntityLockStripes {
+
+    private static final int STRIPES = 256;
+    private static final long LOCK_TIMEOUT_SECONDS = 30;
+    private static final long MAX_BACKOFF_MS = 100;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final long lockTimeoutNanos;
+
+    // Monotonic clock shared by writes and sync reads
+    private final AtomicLong clock = new AtomicLong();
+
+    // "entity:id" -> clock value of its last local write
+    private final Map<String, Long> lastWritten = new ConcurrentHashMap<>();
+
+    // Clock values of running sync cycles; writes older than all of them can be forgotten
+    private final ConcurrentSkipListSet<Long> activeReads = new ConcurrentSkipListSet<>();
+
+    public EntityLockStripes() {
+        this(TimeUnit.SECONDS.toNanos(LOCK_TIMEOUT_SECONDS));
+    }
+
+    EntityLockStripes(long lockTimeoutNanos) {
+        this.lockTimeoutNanos = lockTimeoutNanos;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Stripe locks held by the caller; closing releases them.
+     */
+    public final class Held implements AutoCloseable {
+
+        private final TreeSet<Integer> stripes = new TreeSet<>();
+
+        private Held() {
+        }
+
+        /**
+         * Adds every row's stripe to what is held. Throws {@link IllegalStateException}
+         * if the stripes stay busy for too long; everything held before is then released.
+         */
+        private void lockAll(String entity, Collection<String> ids) {
+            Set<Integer> wanted = new TreeSet<>(stripes);
+            for (String id : ids) {
+                wanted.add(stripe(entity, id));
+            }
+            if (wanted.size() == stripes.size()) return;
+
+            long deadline = System.nanoTime() + lockTimeoutNanos;
+            long backoffMs = 1;
+            while (!tryLockAll(wanted)) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(entity + " rows are being written by another request, try again");
+                }
+                try {
+                    // Randomized, so two callers after the same stripes do not keep colliding
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(1, backoffMs + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while locking " + entity + " rows", e);
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+
+        /**
+         * Takes the wanted stripes without waiting; if one is busy, holds none at all.
+         */
+        private boolean tryLockAll(Set<Integer> wanted) {
+            for (int stripe : wanted) {
+                if (stripes.contains(stripe)) continue;
+                if (!locks[stripe].tryLock()) {
+                    close();
+                    return false;
+                }
+                stripes.add(stripe);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (int stripe : stripes.descendingSet()) {
+                locks[stripe].unlock();
+            }
+            stripes.clear();
+        }
+    }
+
+    // ========== LOCKING ==========
+
+    /**
+     * Locks every row's stripe. Throws {@link IllegalStateException} if they stay busy for too long.
+     */
+    public Held lockAll(String entity, Collection<String> ids) {
+        Held held = new Held();
+        held.lockAll(entity, ids);
+        return held;
+    }
+
+    /**
+     * Locks a single row's stripe without waiting; null if it is busy.
+     */
+    public Held tryLock(String entity, String id) {
+        Held held = new Held();
+        return held.tryLockAll(Set.of(stripe(entity, id))) ? held : null;
+    }
+
+    /**
+     * Like {@link #tryLock}, but also null if the row was written since {@code since}.
+     */
+    public Held tryLockUnwritten(String entity, String id, long since) {
+        Held held = tryLock(entity, id);
+        if (held != null && writtenSince(entity, id, since)) {
+            held.close();
+            return null;
+        }
+        return held;
+    }
+
+    // ========== WRITE TRACKING ==========
+
+    /**
+     * Marks the rows written under their stripes, so a sync that already checked a row
+     * finishes applying it first and every later check sees the write.
+     */
+    public void lockAndMarkWritten(String entity, Collection<String> ids) {
+        try (Held held = lockAll(entity, ids)) {
+            markWritten(entity, ids);
+        }
+    }
+
+    public void markWritten(String entity, Collection<String> ids) {
+        long now = clock.incrementAndGet();
+        for (String id : ids) {
+            lastWritten.put(key(entity, id), now);
+        }
+    }
+
+    /**
+     * Current clock value; take it before fetching and pass it to {@link #writtenSince}.
+     */
+    public long now() {
+        return clock.get();
+    }
+
+    public boolean writtenSince(String entity, String id, long since) {
+        Long written = lastWritten.get(key(entity, id));
+        return written != null && written > since;
+    }
+
+    /**
+     * Registers a running sync cycle, so the writes it may still check are kept.
+     */
+    public long beginRead() {
+        long token = clock.incrementAndGet();
+        activeReads.add(token);
+        return token;
+    }
+
+    public void endRead(long token) {
+        activeReads.remove(token);
+        long oldest = activeReads.isEmpty() ? clock.get() : activeReads.first();
+        lastWritten.values().removeIf(written -> written < oldest);
+    }
+
+    private static String key(String entity, String id) {
+        return entity + ":" + id;
+    }
+
+    private static int stripe(String entity, String id) {
+        return Math.floorMod(key(entity, id).hashCode(), STRIPES);
+    }
+}
@@ -0,0 +1,88 @@
+package customer.users_cap_java.service;
+
+import customer.users_cap_java.client.IasHttpException;
+import cds.gen.iasreplicaservice.BulkDeleteResult;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes many IAS resources with bounded parallelism and reports the outcome per ID.
+ * A 404 counts as success: the resource is already gone.
+ */
+@Component
+public class IasBulkDeleter {
+
+    @FunctionalInterface
+    public interface IasDelete {
+        void delete(String id) throws Exception;
+    }
+
+    private final ExecutorService executor;
+
+    public IasBulkDeleter(@Value("${ias.bulk.parallelism:8}") int parallelism) {
+        this.executor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    public List<BulkDeleteResult> deleteAll(Collection<String> ids, IasDelete delete) {
+        List<CompletableFuture<BulkDeleteResult>> futures = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            futures.add(CompletableFuture.supplyAsync(() -> deleteOne(id, delete), executor));
+        }
+
+        List<BulkDeleteResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<BulkDeleteResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    public static List<String> succeeded(List<BulkDeleteResult> results) {
+        return results.stream().filter(r -> Boolean.TRUE.equals(r.getSuccess())).map(BulkDeleteResult::getId).toList();
+    }
+
+    public static List<BulkDeleteResult> failed(List<BulkDeleteResult> results) {
+        return results.stream().filter(r -> !Boolean.TRUE.equals(r.getSuccess())).toList();
+    }
+
+    /**
+     * Result for an ID that was not attempted because the replica does not know it.
+     */
+    public static BulkDeleteResult notFound(String id) {
+        BulkDeleteResult result = BulkDeleteResult.create();
+        result.setId(id);
+        result.setSuccess(false);
+        result.setMessage("Not found in the replica");
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static BulkDeleteResult deleteOne(String id, IasDelete delete) {
+        BulkDeleteResult result = BulkDeleteResult.create();
+        result.setId(id);
+        try {
+            delete.delete(id);
+            result.setSuccess(true);
+        } catch (IasHttpException e) {
+            result.setSuccess(e.isNotFound());
+            result.setMessage(e.isNotFound() ? "Already deleted in IAS" : e.getMessage());
+        } catch (Exception e) {
+            result.setSuccess(false);
+            result.setMessage(e.getMessage());
+        }
+        return result;
+    }
+}
@@ -2,295 +2,831 @@ package customer.users_cap_java.service;
 
 import com.sap.cds.ql.Select;
 import com.sap.cds.ql.Insert;
-import com.sap.cds.ql.Update;
 import com.sap.cds.ql.Delete;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.Upsert;
 import com.sap.cds.services.persistence.PersistenceService;
 import com.sap.cds.Result;
+import com.sap.cds.Row;
+import customer.users_cap_java.client.IasClientRegistry;
 import customer.users_cap_java.client.IasHttpClient;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import customer.users_cap_java.client.IasHttpException;
+import customer.users_cap_java.events.ChangeEvent;
+import customer.users_cap_java.events.ChangeFeed;
+import customer.users_cap_java.client.scim.ScimGroup;
+import customer.users_cap_java.client.scim.ScimJson;
+import customer.users_cap_java.client.scim.ScimListResponse;
+import customer.users_cap_java.client.scim.ScimUser;
 import cds.gen.iasreplicaservice.Users;
 import cds.gen.iasreplicaservice.Users_;
 import cds.gen.iasreplicaservice.Groups;
 import cds.gen.iasreplicaservice.Groups_;
 import cds.gen.iasreplicaservice.GroupMembers;
 import cds.gen.iasreplicaservice.GroupMembers_;
+import cds.gen.iasreplicaservice.SyncCheckpoints;
+
+import jakarta.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TriggerContext;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * IAS -> replica sync. Every configured tenant has its own worker: its own
+ * client, schedule, lock and on-demand queue, and its own scheduler thread,
+ * so tenants sync concurrently and a slow tenant never delays the others.
+ * All replica reads and writes of a cycle are scoped to the worker's tenant.
+ *
+ * Interactive write-back keeps running during a cycle. Rows it touched after
+ * the sync fetched them are neither overwritten nor swept, but re-read once
+ * the cycle is done (see {@link EntityLockStripes}).
+ */
 @Component
-public class IasSyncScheduler {
+public class IasSyncScheduler implements SchedulingConfigurer {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final IasClientRegistry clients;
+    private final Map<String, TenantSync> tenants = new LinkedHashMap<>();
+
+    private ScheduledExecutorService schedulerPool;
+    private final ExecutorService onDemandExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${ias.sync.base-interval-ms:60000}")
+    private long baseIntervalMs;
+
+    @Value("${ias.sync.min-interval-ms:15000}")
+    private long minIntervalMs;
+
+    @Value("${ias.sync.max-interval-ms:600000}")
+    private long maxIntervalMs;
+
+    @Value("${ias.sync.burst-threshold:20}")
+    private int burstThreshold;
 
-    private final IasHttpClient iasClient;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private volatile boolean syncing = false;
-    
     @Autowired
     private PersistenceService db;
-    
+
+    @Autowired
+    private SyncCheckpointStore checkpoints;
+
+    @Autowired
+    private ScimResourceMapper mapper;
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    private EntityLockStripes lockStripes;
+
     @Autowired
-    private UserServiceHandler userServiceHandler;
+    private MembershipIndex membershipIndex;
 
     @Autowired
-    public IasSyncScheduler(IasHttpClient iasClient) {
-        this.iasClient = iasClient;
+    public IasSyncScheduler(IasClientRegistry clients) {
+        this.clients = clients;
+        for (IasHttpClient client : clients.all()) {
+            tenants.put(client.getTenantId(), new TenantSync(client));
+        }
     }
 
-    @Scheduled(fixedRate = 60000) // Every 60 seconds
-    public void syncFromIas() {
-        if (syncing) {
-            System.out.println("[SYNC] Already syncing, skipping...");
+    /**
+     * Sync state of one tenant.
+     */
+    private static final class TenantSync {
+
+        final String id;
+        final IasHttpClient client;
+
+        // Scheduled cycles and on-demand requests of a tenant never run concurrently
+        final ReentrantLock cycleLock = new ReentrantLock();
+
+        // On-demand requests, coalesced until the drain task picks them up
+        final AtomicBoolean fullSyncRequested = new AtomicBoolean(false);
+        final Set<String> pendingUserIds = ConcurrentHashMap.newKeySet();
+        final Set<String> pendingGroupIds = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+        volatile long currentIntervalMs = -1;
+        int cycleChanges;
+        // Attributes of this tenant's current cycle that could not be mapped
+        final AtomicInteger attributeFailures = new AtomicInteger();
+
+        TenantSync(IasHttpClient client) {
+            this.id = client.getTenantId();
+            this.client = client;
+        }
+    }
+
+    // ========== SCHEDULING ==========
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        // One thread per tenant: every tenant always gets its turn
+        schedulerPool = Executors.newScheduledThreadPool(tenants.size(),
+                Thread.ofPlatform().name("ias-sync-", 0).factory());
+        registrar.setScheduler(schedulerPool);
+
+        for (TenantSync tenant : tenants.values()) {
+            // Next run is computed after each cycle finishes, so cycles never overlap
+            registrar.addTriggerTask(() -> syncFromIas(tenant), context -> nextExecution(tenant, context));
+        }
+    }
+
+    private Instant nextExecution(TenantSync tenant, TriggerContext context) {
+        if (tenant.currentIntervalMs < 0) {
+            tenant.currentIntervalMs = baseIntervalMs;
+        }
+        Instant lastCompletion = context.lastCompletion();
+        Instant from = lastCompletion != null ? lastCompletion : Instant.now();
+        return from.plusMillis(tenant.currentIntervalMs);
+    }
+
+    /**
+     * Stretches the interval after quiet cycles and snaps back after bursts.
+     */
+    private void adaptInterval(TenantSync tenant, int changes) {
+        long current = tenant.currentIntervalMs;
+        long interval = current < 0 ? baseIntervalMs : current;
+        if (changes == 0) {
+            interval = Math.min(interval * 2, maxIntervalMs);
+        } else if (changes >= burstThreshold) {
+            interval = minIntervalMs;
+        } else {
+            interval = Math.max(Math.min(interval, baseIntervalMs) / 2, minIntervalMs);
+        }
+        if (interval != current) {
+            System.out.println("[SYNC] [" + tenant.id + "] " + changes + " change(s), next sync in " + interval / 1000 + "s");
+        }
+        tenant.currentIntervalMs = interval;
+    }
+
+    private void syncFromIas(TenantSync tenant) {
+        if (!tenant.cycleLock.tryLock()) {
+            System.out.println("[SYNC] [" + tenant.id + "] Already syncing, skipping...");
             return;
         }
-        
-        syncing = true;
-        System.out.println("[SYNC] Starting sync...");
-        
         try {
-            userServiceHandler.setSyncEnabled(false); // Prevent DB->IAS sync during this
-            
-            syncUsers();
-            syncGroups();
-            syncMemberships();
-            
-            System.out.println("[SYNC] Completed");
+            runCycle(tenant);
+        } finally {
+            tenant.cycleLock.unlock();
+        }
+    }
+
+    private void runCycle(TenantSync tenant) {
+        System.out.println("[SYNC] [" + tenant.id + "] Starting sync...");
+        tenant.cycleChanges = 0;
+        tenant.attributeFailures.set(0);
+        long readToken = lockStripes.beginRead();
+
+        try {
+            // Resume an interrupted cycle or start a new one
+            Instant cycleStart = checkpoints.resumeOrStartCycle(tenant.id);
+
+            syncUsers(tenant, cycleStart);
+            syncGroups(tenant, cycleStart);
+            syncMemberships(tenant, cycleStart);
+
+            int attributeFailures = tenant.attributeFailures.get();
+            if (attributeFailures > 0) {
+                System.err.println("[SYNC] [" + tenant.id + "] " + attributeFailures + " attribute(s) could not be mapped");
+            }
+
+            adaptInterval(tenant, tenant.cycleChanges);
+            System.out.println("[SYNC] [" + tenant.id + "] Completed");
         } catch (Exception e) {
-            System.err.println("[SYNC] Error: " + e.getMessage());
+            System.err.println("[SYNC] [" + tenant.id + "] Error: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            userServiceHandler.setSyncEnabled(true);
-            syncing = false;
+            lockStripes.endRead(readToken);
         }
     }
 
-    // ========== SYNC USERS ==========
-    
-    private void syncUsers() throws Exception {
-        // Get users from IAS
-        String json = iasClient.getUsers();
-        JsonNode resources = objectMapper.readTree(json).get("Resources");
-        
-        if (resources == null) return;
-
-        // Get users from DB
-        var dbResult = db.run(Select.from(Users_.class));
-        Map<String, Users> dbUsers = new HashMap<>();
-        for (Users u : dbResult) {
-            dbUsers.put(u.getId(), u);
-        }
-
-        Set<String> iasUserIds = new HashSet<>();
-        
-        // Process each IAS user
-        for (JsonNode node : resources) {
-            String id = node.get("id").asText();
-            iasUserIds.add(id);
-            
-            Users user = mapUser(node);
-            
-            if (dbUsers.containsKey(id)) {
-                // Update
-                db.run(Update.entity(Users_.class).data(user).where(u -> u.ID().eq(id)));
+    // ========== ON-DEMAND SYNC ==========
+
+    /**
+     * Queues a full sync of a tenant (null for the default tenant).
+     * Requests arriving before the queue is drained are coalesced.
+     */
+    public void requestFullSync(String tenantId) {
+        TenantSync tenant = tenant(tenantId);
+        tenant.fullSyncRequested.set(true);
+        scheduleDrain(tenant);
+    }
+
+    public void requestUserSync(String tenantId, String userId) {
+        TenantSync tenant = tenant(tenantId);
+        tenant.pendingUserIds.add(userId);
+        scheduleDrain(tenant);
+    }
+
+    public void requestGroupSync(String tenantId, String groupId) {
+        TenantSync tenant = tenant(tenantId);
+        tenant.pendingGroupIds.add(groupId);
+        scheduleDrain(tenant);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        onDemandExecutor.shutdownNow();
+        if (schedulerPool != null) {
+            schedulerPool.shutdownNow();
+        }
+    }
+
+    private TenantSync tenant(String tenantId) {
+        return tenants.get(clients.forTenant(tenantId).getTenantId());
+    }
+
+    private void scheduleDrain(TenantSync tenant) {
+        if (tenant.drainScheduled.compareAndSet(false, true)) {
+            onDemandExecutor.submit(() -> drainRequests(tenant));
+        }
+    }
+
+    private void drainRequests(TenantSync tenant) {
+        tenant.drainScheduled.set(false);
+
+        // Wait for a running scheduled cycle instead of dropping the request
+        tenant.cycleLock.lock();
+        try {
+            if (tenant.fullSyncRequested.getAndSet(false)) {
+                // A full cycle covers every scoped request queued so far
+                tenant.pendingUserIds.clear();
+                tenant.pendingGroupIds.clear();
+                runCycle(tenant);
             } else {
-                // Create
-                db.run(Insert.into(Users_.class).entry(user));
+                long readToken = lockStripes.beginRead();
+                try {
+                    drainScoped(tenant);
+                } finally {
+                    lockStripes.endRead(readToken);
+                }
+            }
+        } finally {
+            tenant.cycleLock.unlock();
+        }
+    }
+
+    private void drainScoped(TenantSync tenant) {
+        for (String userId : new ArrayList<>(tenant.pendingUserIds)) {
+            tenant.pendingUserIds.remove(userId);
+            try {
+                syncUser(tenant, userId);
+            } catch (Exception e) {
+                System.err.println("[SYNC] [" + tenant.id + "] On-demand sync of user " + userId + " failed: " + e.getMessage());
             }
         }
-        
-        // Delete users not in IAS
-        for (String dbId : dbUsers.keySet()) {
-            if (!iasUserIds.contains(dbId)) {
-                db.run(Delete.from(Users_.class).where(u -> u.ID().eq(dbId)));
+        for (String groupId : new ArrayList<>(tenant.pendingGroupIds)) {
+            tenant.pendingGroupIds.remove(groupId);
+            try {
+                syncGroup(tenant, groupId);
+            } catch (Exception e) {
+                System.err.println("[SYNC] [" + tenant.id + "] On-demand sync of group " + groupId + " failed: " + e.getMessage());
             }
         }
     }
 
-    // ========== SYNC GROUPS ==========
-    
-    private void syncGroups() throws Exception {
-        // Get groups from IAS
-        String json = iasClient.getGroups();
-        System.out.println("[DEBUG] IasSyncScheduler.syncGroups - JSON: " + json);
-        JsonNode resources = objectMapper.readTree(json).get("Resources");
-        
-        if (resources == null) return;
-
-        // Get groups from DB
-        var dbResult = db.run(Select.from(Groups_.class));
-        Map<String, Groups> dbGroups = new HashMap<>();
-        for (Groups g : dbResult) {
-            dbGroups.put(g.getId(), g);
-            System.out.println("[DEBUG] IasSyncScheduler.syncGroups - DB Group: " + g.getId());
-        }
-
-        Set<String> iasGroupIds = new HashSet<>();
-        
-        // Process each IAS group
-        for (JsonNode node : resources) {
-            String id = node.get("id").asText();
-            iasGroupIds.add(id);
-            
-            Groups group = mapGroup(node);
-            
-            if (dbGroups.containsKey(id)) {
-                // Update
-                db.run(Update.entity(Groups_.class).data(group).where(g -> g.ID().eq(id)));
+    private void syncUser(TenantSync tenant, String userId) throws Exception {
+        long fetchedAt = lockStripes.now();
+        ScimUser resource = null;
+        boolean gone = false;
+        try {
+            String stored = storedVersions(Users_.CDS_NAME, tenant.id, List.of(userId)).get(userId);
+            resource = tenant.client.getUserResource(userId, stored);
+        } catch (IasHttpException e) {
+            if (!e.isNotFound()) throw e;
+            gone = true;
+        }
+
+        try (EntityLockStripes.Held held = lockStripes.lockAll(ChangeEvent.USERS, List.of(userId))) {
+            if (lockStripes.writtenSince(ChangeEvent.USERS, userId, fetchedAt)) {
+                // Written interactively meanwhile: the local write is newer than what was fetched
+                System.out.println("[SYNC] [" + tenant.id + "] User " + userId + " was written meanwhile, keeping it");
+                return;
+            }
+            if (gone) {
+                db.run(Delete.from(GroupMembers_.class).where(m -> m.tenant().eq(tenant.id).and(m.user_ID().eq(userId))));
+                db.run(Delete.from(Users_.class).where(u -> u.tenant().eq(tenant.id).and(u.ID().eq(userId))));
+                membershipIndex.removeUsers(List.of(userId));
+                changeFeed.publish(ChangeEvent.delete(ChangeEvent.USERS, userId));
+            } else if (resource == null) {
+                // 304: the replica already has this version
+                markSeen(Users_.CDS_NAME, List.of(userId), Instant.now());
             } else {
-                // Create
-                db.run(Insert.into(Groups_.class).entry(group));
+                Users user = mapper.mapUser(resource, tenant.attributeFailures);
+                user.setTenant(tenant.id);
+                user.setLastSyncedAt(Instant.now());
+                db.run(Upsert.into(Users_.class).entry(user));
+                changeFeed.publish(ChangeEvent.upsert(ChangeEvent.USERS, userId, user));
             }
         }
-        
-        // Delete groups not in IAS
-        for (String dbId : dbGroups.keySet()) {
-            if (!iasGroupIds.contains(dbId)) {
-                db.run(Delete.from(Groups_.class).where(g -> g.ID().eq(dbId)));
+        System.out.println("[SYNC] [" + tenant.id + "] On-demand sync of user " + userId + " done");
+    }
+
+    private void syncGroup(TenantSync tenant, String groupId) throws Exception {
+        long fetchedAt = lockStripes.now();
+        ScimGroup resource = null;
+        boolean gone = false;
+        try {
+            String stored = storedVersions(Groups_.CDS_NAME, tenant.id, List.of(groupId)).get(groupId);
+            resource = tenant.client.getGroupResource(groupId, stored);
+        } catch (IasHttpException e) {
+            if (!e.isNotFound()) throw e;
+            gone = true;
+        }
+
+        try (EntityLockStripes.Held held = lockStripes.lockAll(ChangeEvent.GROUPS, List.of(groupId))) {
+            if (lockStripes.writtenSince(ChangeEvent.GROUPS, groupId, fetchedAt)) {
+                System.out.println("[SYNC] [" + tenant.id + "] Group " + groupId + " was written meanwhile, keeping it");
+                return;
             }
+            if (gone) {
+                db.run(Delete.from(GroupMembers_.class).where(m -> m.tenant().eq(tenant.id).and(m.group_ID().eq(groupId))));
+                db.run(Delete.from(Groups_.class).where(g -> g.tenant().eq(tenant.id).and(g.ID().eq(groupId))));
+                membershipIndex.removeGroups(List.of(groupId));
+                changeFeed.publish(ChangeEvent.delete(ChangeEvent.GROUPS, groupId));
+            } else if (resource == null) {
+                // 304: attributes and members are unchanged
+                markSeen(Groups_.CDS_NAME, List.of(groupId), Instant.now());
+            } else {
+                Groups group = mapper.mapGroup(resource);
+                group.setTenant(tenant.id);
+                group.setLastSyncedAt(Instant.now());
+                db.run(Upsert.into(Groups_.class).entry(group));
+                changeFeed.publish(ChangeEvent.upsert(ChangeEvent.GROUPS, groupId, group));
+            }
+        }
+        if (resource != null) {
+            reconcileMemberships(tenant, List.of(resource), fetchedAt);
         }
+        System.out.println("[SYNC] [" + tenant.id + "] On-demand sync of group " + groupId + " done");
+    }
+
+    // ========== SYNC USERS ==========
+
+    private void syncUsers(TenantSync tenant, Instant cycleStart) throws Exception {
+        SyncCheckpoints cp = checkpoints.get(tenant.id, SyncCheckpointStore.PHASE_USERS);
+        if (checkpoints.isCompleted(cp)) return;
+
+        int startIndex = cp.getNextIndex();
+        int processed = cp.getProcessed();
+        int failed = cp.getFailed();
+        Instant highWaterMark = cp.getHighWaterMark();
+        Instant changedSince = cp.getHighWaterMark();
+        long phaseStart = lockStripes.now();
+        // Only a phase that paged up to totalResults may sweep; an empty page short of it may not
+        boolean covered = false;
+
+        // Page through IAS users, checkpointing after every page
+        while (true) {
+            long fetchedAt = lockStripes.now();
+            ScimListResponse<ScimUser> page = tenant.client.getUsersPage(startIndex, PAGE_SIZE);
+            List<ScimUser> resources = page.getResources();
+            if (resources.isEmpty()) {
+                covered = startIndex > page.getTotalResults();
+                break;
+            }
+
+            Map<String, String> versions = storedVersions(Users_.CDS_NAME, tenant.id,
+                    resources.stream().map(ScimUser::getId).toList());
+            // Unchanged, skipped or quarantined, but present in IAS: stamped so the sweep keeps them
+            List<String> seenIds = new ArrayList<>();
+            // Unchanged or written: no longer quarantined
+            List<String> syncedIds = new ArrayList<>();
+
+            for (ScimUser resource : resources) {
+                if (isUnchanged(resource.getId(), ScimResourceMapper.version(resource.getMeta()), versions)) {
+                    seenIds.add(resource.getId());
+                    syncedIds.add(resource.getId());
+                    processed++;
+                    continue;
+                }
+                EntityLockStripes.Held held = lockStripes.tryLockUnwritten(ChangeEvent.USERS, resource.getId(), fetchedAt);
+                if (held == null) {
+                    // Being written interactively: keep the local write and read it again later
+                    reRead(tenant, ChangeEvent.USERS, resource.getId());
+                    seenIds.add(resource.getId());
+                    continue;
+                }
+                try {
+                    Users user = mapper.mapUser(resource, tenant.attributeFailures);
+                    user.setTenant(tenant.id);
+                    user.setLastSyncedAt(cycleStart);
+                    db.run(Upsert.into(Users_.class).entry(user));
+                    Instant modified = mapper.lastModified(resource.getMeta(), resource.getId(), tenant.attributeFailures);
+                    if (modified != null && (changedSince == null || modified.isAfter(changedSince))) {
+                        tenant.cycleChanges++;
+                        changeFeed.publish(ChangeEvent.upsert(ChangeEvent.USERS, user.getId(), user));
+                    }
+                    highWaterMark = laterOf(highWaterMark, modified);
+                    syncedIds.add(resource.getId());
+                    processed++;
+                } catch (Exception e) {
+                    failed++;
+                    checkpoints.quarantine(tenant.id, SyncCheckpointStore.PHASE_USERS, resource.getId(), ScimJson.toJson(resource), e);
+                    seenIds.add(resource.getId());
+                } finally {
+                    held.close();
+                }
+            }
+            markSeen(Users_.CDS_NAME, seenIds, cycleStart);
+            checkpoints.release(tenant.id, SyncCheckpointStore.PHASE_USERS, syncedIds);
+
+            startIndex += resources.size();
+            checkpoints.savePage(tenant.id, SyncCheckpointStore.PHASE_USERS, startIndex, processed, failed, highWaterMark);
+
+            if (startIndex > page.getTotalResults()) {
+                covered = true;
+                break;
+            }
+        }
+
+        // Delete this tenant's users not seen in this cycle, if the paging saw the whole tenant
+        List<String> deletedIds = List.of();
+        if (covered) {
+            List<String> staleIds = db.run(Select.from(Users_.class)
+                    .columns(u -> u.ID())
+                    .where(u -> u.tenant().eq(tenant.id).and(u.lastSyncedAt().lt(cycleStart)
+                            .or(u.lastSyncedAt().isNull().and(u.createdAt().lt(cycleStart))))))
+                    .stream()
+                    .map(row -> row.get("ID").toString())
+                    .toList();
+            deletedIds = sweep(tenant, ChangeEvent.USERS, staleIds, phaseStart);
+        } else {
+            System.err.println("[SYNC] [" + tenant.id + "] Users paging ended before totalResults, skipping the sweep");
+        }
+        tenant.cycleChanges += deletedIds.size();
+
+        checkpoints.complete(tenant.id, SyncCheckpointStore.PHASE_USERS);
+        System.out.println("[SYNC] [" + tenant.id + "] Users: " + processed + " synced, " + failed + " quarantined, " + deletedIds.size() + " deleted");
+    }
+
+    // ========== SYNC GROUPS ==========
+
+    private void syncGroups(TenantSync tenant, Instant cycleStart) throws Exception {
+        SyncCheckpoints cp = checkpoints.get(tenant.id, SyncCheckpointStore.PHASE_GROUPS);
+        if (checkpoints.isCompleted(cp)) return;
+
+        int startIndex = cp.getNextIndex();
+        int processed = cp.getProcessed();
+        int failed = cp.getFailed();
+        Instant highWaterMark = cp.getHighWaterMark();
+        Instant changedSince = cp.getHighWaterMark();
+        long phaseStart = lockStripes.now();
+        // Only a phase that paged up to totalResults may sweep; an empty page short of it may not
+        boolean covered = false;
+
+        // Page through IAS groups, checkpointing after every page
+        while (true) {
+            long fetchedAt = lockStripes.now();
+            ScimListResponse<ScimGroup> page = tenant.client.getGroupsPage(startIndex, PAGE_SIZE);
+            List<ScimGroup> resources = page.getResources();
+            if (resources.isEmpty()) {
+                covered = startIndex > page.getTotalResults();
+                break;
+            }
+
+            Map<String, String> versions = storedVersions(Groups_.CDS_NAME, tenant.id,
+                    resources.stream().map(ScimGroup::getId).toList());
+            // Unchanged, skipped or quarantined, but present in IAS: stamped so the sweep keeps them
+            List<String> seenIds = new ArrayList<>();
+            // Unchanged or written: no longer quarantined
+            List<String> syncedIds = new ArrayList<>();
+
+            for (ScimGroup resource : resources) {
+                if (isUnchanged(resource.getId(), ScimResourceMapper.version(resource.getMeta()), versions)) {
+                    seenIds.add(resource.getId());
+                    syncedIds.add(resource.getId());
+                    processed++;
+                    continue;
+                }
+                EntityLockStripes.Held held = lockStripes.tryLockUnwritten(ChangeEvent.GROUPS, resource.getId(), fetchedAt);
+                if (held == null) {
+                    // Being written interactively: keep the local write and read it again later
+                    reRead(tenant, ChangeEvent.GROUPS, resource.getId());
+                    seenIds.add(resource.getId());
+                    continue;
+                }
+                try {
+                    Groups group = mapper.mapGroup(resource);
+                    group.setTenant(tenant.id);
+                    group.setLastSyncedAt(cycleStart);
+                    db.run(Upsert.into(Groups_.class).entry(group));
+                    Instant modified = mapper.lastModified(resource.getMeta(), resource.getId(), tenant.attributeFailures);
+                    if (modified != null && (changedSince == null || modified.isAfter(changedSince))) {
+                        tenant.cycleChanges++;
+                        changeFeed.publish(ChangeEvent.upsert(ChangeEvent.GROUPS, group.getId(), group));
+                    }
+                    highWaterMark = laterOf(highWaterMark, modified);
+                    syncedIds.add(resource.getId());
+                    processed++;
+                } catch (Exception e) {
+                    failed++;
+                    checkpoints.quarantine(tenant.id, SyncCheckpointStore.PHASE_GROUPS, resource.getId(), ScimJson.toJson(resource), e);
+                    seenIds.add(resource.getId());
+                } finally {
+                    held.close();
+                }
+            }
+            markSeen(Groups_.CDS_NAME, seenIds, cycleStart);
+            checkpoints.release(tenant.id, SyncCheckpointStore.PHASE_GROUPS, syncedIds);
+
+            startIndex += resources.size();
+            checkpoints.savePage(tenant.id, SyncCheckpointStore.PHASE_GROUPS, startIndex, processed, failed, highWaterMark);
+
+            if (startIndex > page.getTotalResults()) {
+                covered = true;
+                break;
+            }
+        }
+
+        // Delete this tenant's groups not seen in this cycle, if the paging saw the whole tenant
+        List<String> deletedIds = List.of();
+        if (covered) {
+            List<String> staleIds = db.run(Select.from(Groups_.class)
+                    .columns(g -> g.ID())
+                    .where(g -> g.tenant().eq(tenant.id).and(g.lastSyncedAt().lt(cycleStart)
+                            .or(g.lastSyncedAt().isNull().and(g.createdAt().lt(cycleStart))))))
+                    .stream()
+                    .map(row -> row.get("ID").toString())
+                    .toList();
+            deletedIds = sweep(tenant, ChangeEvent.GROUPS, staleIds, phaseStart);
+        } else {
+            System.err.println("[SYNC] [" + tenant.id + "] Groups paging ended before totalResults, skipping the sweep");
+        }
+        tenant.cycleChanges += deletedIds.size();
+
+        checkpoints.complete(tenant.id, SyncCheckpointStore.PHASE_GROUPS);
+        System.out.println("[SYNC] [" + tenant.id + "] Groups: " + processed + " synced, " + failed + " quarantined, " + deletedIds.size() + " deleted");
     }
 
     // ========== SYNC MEMBERSHIPS ==========
-    
-    private void syncMemberships() throws Exception {
-        // Get groups (with members) from IAS
-        String json = iasClient.getGroups();
-        JsonNode resources = objectMapper.readTree(json).get("Resources");
-        
-        if (resources == null) return;
-
-        // Get memberships from DB
-        var dbResult = db.run(Select.from(GroupMembers_.class));
+
+    private void syncMemberships(TenantSync tenant, Instant cycleStart) throws Exception {
+        SyncCheckpoints cp = checkpoints.get(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS);
+        if (checkpoints.isCompleted(cp)) return;
+
+        int startIndex = cp.getNextIndex();
+        int processed = cp.getProcessed();
+        int failed = cp.getFailed();
+
+        // Memberships are diffed group by group, one page of groups at a time
+        while (true) {
+            long fetchedAt = lockStripes.now();
+            ScimListResponse<ScimGroup> page = tenant.client.getGroupMembersPage(startIndex, PAGE_SIZE);
+            List<ScimGroup> resources = page.getResources();
+            if (resources.isEmpty()) break;
+
+            MembershipChanges changes = reconcileMemberships(tenant, resources, fetchedAt);
+            processed += changes.applied();
+            failed += changes.failed();
+            tenant.cycleChanges += changes.applied();
+
+            startIndex += resources.size();
+            checkpoints.savePage(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS, startIndex, processed, failed, cp.getHighWaterMark());
+
+            if (startIndex > page.getTotalResults()) break;
+        }
+
+        checkpoints.complete(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS);
+        System.out.println("[SYNC] [" + tenant.id + "] Memberships: " + processed + " changed, " + failed + " quarantined");
+    }
+
+    private record MembershipChanges(int applied, int failed) {}
+
+    /**
+     * Brings the replica memberships of the given IAS groups in line with their "members" arrays.
+     * Memberships written interactively since {@code fetchedAt} are left alone and their group re-read.
+     */
+    private MembershipChanges reconcileMemberships(TenantSync tenant, List<ScimGroup> groups, long fetchedAt) {
+        int applied = 0;
+        int failed = 0;
+        List<String> syncedKeys = new ArrayList<>();
+
+        List<String> groupIds = new ArrayList<>();
+        for (ScimGroup group : groups) {
+            if (group.getId() != null) groupIds.add(group.getId());
+        }
+
+        // Current memberships of these groups, from the index instead of the table
         Set<String> dbKeys = new HashSet<>();
-        for (GroupMembers m : dbResult) {
-            if (m.getGroupId() != null && m.getUserId() != null) {
-                dbKeys.add(m.getGroupId() + ":" + m.getUserId());
+        for (String groupId : groupIds) {
+            for (String userId : membershipIndex.membersOf(groupId)) {
+                dbKeys.add(groupId + ":" + userId);
             }
         }
 
         Set<String> iasKeys = new HashSet<>();
-        
+
         // Process memberships from IAS
-        for (JsonNode groupNode : resources) {
-            String groupId = groupNode.get("id").asText();
-            JsonNode members = groupNode.get("members");
-            
-            if (members != null && members.isArray()) {
-                for (JsonNode member : members) {
-                    String userId = member.get("value").asText();
+        for (ScimGroup group : groups) {
+            String groupId = group.getId();
+            List<ScimGroup.Member> members = group.getMembers();
+
+            if (groupId != null && members != null) {
+                for (ScimGroup.Member member : members) {
+                    String userId = member.getValue();
+                    if (userId == null) continue;
                     String key = groupId + ":" + userId;
                     iasKeys.add(key);
-                    
+
                     if (!dbKeys.contains(key)) {
-                        // Create membership
-                        GroupMembers m = GroupMembers.create();
-                        m.setGroupId(groupId);
-                        m.setUserId(userId);
-                        db.run(Insert.into(GroupMembers_.class).entry(m));
+                        EntityLockStripes.Held held = lockStripes.tryLockUnwritten(ChangeEvent.GROUP_MEMBERS, key, fetchedAt);
+                        if (held == null) {
+                            reRead(tenant, ChangeEvent.GROUPS, groupId);
+                            continue;
+                        }
+                        try {
+                            // Create membership
+                            GroupMembers m = GroupMembers.create();
+                            m.setGroupId(groupId);
+                            m.setUserId(userId);
+                            m.setTenant(tenant.id);
+                            db.run(Insert.into(GroupMembers_.class).entry(m));
+                            membershipIndex.add(tenant.id, groupId, List.of(userId));
+                            changeFeed.publish(ChangeEvent.memberAdded(groupId, userId));
+                            applied++;
+                            syncedKeys.add(key);
+                        } catch (Exception e) {
+                            failed++;
+                            checkpoints.quarantine(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS, key, ScimJson.toJson(member), e);
+                            membershipIndex.reloadGroup(groupId);
+                        } finally {
+                            held.close();
+                        }
                     }
                 }
             }
         }
-        
+
         // Delete memberships not in IAS
         for (String key : dbKeys) {
             if (!iasKeys.contains(key)) {
                 String[] parts = key.split(":");
-                db.run(Delete.from(GroupMembers_.class)
-                    .where(m -> m.group_ID().eq(parts[0]).and(m.user_ID().eq(parts[1]))));
+                EntityLockStripes.Held held = lockStripes.tryLockUnwritten(ChangeEvent.GROUP_MEMBERS, key, fetchedAt);
+                if (held == null) {
+                    reRead(tenant, ChangeEvent.GROUPS, parts[0]);
+                    continue;
+                }
+                try {
+                    db.run(Delete.from(GroupMembers_.class)
+                        .where(m -> m.group_ID().eq(parts[0]).and(m.user_ID().eq(parts[1]))));
+                    membershipIndex.remove(parts[0], List.of(parts[1]));
+                    changeFeed.publish(ChangeEvent.memberRemoved(parts[0], parts[1]));
+                    applied++;
+                    syncedKeys.add(key);
+                } catch (Exception e) {
+                    failed++;
+                    checkpoints.quarantine(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS, key, null, e);
+                    membershipIndex.reloadGroup(parts[0]);
+                } finally {
+                    held.close();
+                }
             }
         }
+
+        checkpoints.release(tenant.id, SyncCheckpointStore.PHASE_MEMBERSHIPS, syncedKeys);
+        return new MembershipChanges(applied, failed);
     }
 
-    // ========== MAPPERS ==========
-    
-    private Users mapUser(JsonNode node) {
-        Users user = Users.create();
-        user.setId(node.get("id").asText());
-        
-        if (node.has("userName")) {
-            user.setLoginName(node.get("userName").asText());
-        }
-        
-        if (node.has("name")) {
-            JsonNode name = node.get("name");
-            if (name.has("givenName")) user.setFirstName(name.get("givenName").asText());
-            if (name.has("familyName")) user.setLastName(name.get("familyName").asText());
-        }
-        
-        if (node.has("emails") && node.get("emails").isArray() && node.get("emails").size() > 0) {
-            user.setEmail(node.get("emails").get(0).get("value").asText());
-        }
-        
-        user.setStatus(node.has("active") && node.get("active").asBoolean() ? "Active" : "Inactive");
-        user.setUserType(node.has("userType") ? node.get("userType").asText() : "public");
-        
-        // SAP extension: validFrom, validTo
-        if (node.has("urn:ietf:params:scim:schemas:extension:sap:2.0:User")) {
-            JsonNode sapExt = node.get("urn:ietf:params:scim:schemas:extension:sap:2.0:User");
-            if (sapExt.has("validFrom") && !sapExt.get("validFrom").isNull()) {
-                try {
-                    user.setValidFrom(Instant.parse(sapExt.get("validFrom").asText()));
-                } catch (Exception ignored) {}
-            }
-            if (sapExt.has("validTo") && !sapExt.get("validTo").isNull()) {
-                try {
-                    user.setValidTo(Instant.parse(sapExt.get("validTo").asText()));
-                } catch (Exception ignored) {}
-            }
-        }
-        
-        // Enterprise extension: organization -> company
-        if (node.has("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User")) {
-            JsonNode entExt = node.get("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User");
-            if (entExt.has("organization") && !entExt.get("organization").isNull()) {
-                user.setCompany(entExt.get("organization").asText());
+    // ========== CONCURRENT WRITES ==========
+
+    /**
+     * Deletes the stale rows of a phase under their stripe locks. Paging by startIndex
+     * can miss resources that moved while IAS changed, so each row is only deleted once
+     * IAS answers 404 for it; the others are re-read. Rows that are busy or were written
+     * interactively since the phase started may not be in IAS yet; they are kept and
+     * re-read as well. Returns the deleted IDs.
+     */
+    private List<String> sweep(TenantSync tenant, String entity, List<String> staleIds, long phaseStart) {
+        if (staleIds.isEmpty()) return staleIds;
+
+        boolean users = ChangeEvent.USERS.equals(entity);
+        List<String> goneIds = new ArrayList<>();
+        for (String id : staleIds) {
+            if (isGoneFromIas(tenant, users, id)) {
+                goneIds.add(id);
+            } else {
+                reRead(tenant, entity, id);
             }
         }
-        
-        // Addresses: country, locality -> city (from first address)
-        if (node.has("addresses") && node.get("addresses").isArray() && node.get("addresses").size() > 0) {
-            JsonNode addr = node.get("addresses").get(0);
-            if (addr.has("country") && !addr.get("country").isNull()) {
-                user.setCountry(addr.get("country").asText());
+        if (goneIds.isEmpty()) return goneIds;
+
+        // Busy or written rows are skipped one by one instead of waiting for all stripes
+        List<String> deletable = new ArrayList<>();
+        List<EntityLockStripes.Held> held = new ArrayList<>();
+        try {
+            for (String id : goneIds) {
+                EntityLockStripes.Held row = lockStripes.tryLockUnwritten(entity, id, phaseStart);
+                if (row == null) {
+                    reRead(tenant, entity, id);
+                } else {
+                    held.add(row);
+                    deletable.add(id);
+                }
             }
-            if (addr.has("locality") && !addr.get("locality").isNull()) {
-                user.setCity(addr.get("locality").asText());
+            if (!deletable.isEmpty()) {
+                db.run(Delete.from(GroupMembers_.class)
+                        .where(m -> (users ? m.user_ID() : m.group_ID()).in(deletable)));
+                db.run(Delete.from(users ? Users_.CDS_NAME : Groups_.CDS_NAME)
+                        .where(e -> e.get("ID").in(deletable)));
+                if (users) {
+                    membershipIndex.removeUsers(deletable);
+                } else {
+                    membershipIndex.removeGroups(deletable);
+                }
             }
+        } finally {
+            held.forEach(EntityLockStripes.Held::close);
         }
-        
-        return user;
+        deletable.forEach(id -> changeFeed.publish(ChangeEvent.delete(entity, id)));
+        return deletable;
     }
 
-    private Groups mapGroup(JsonNode node) {
-        Groups group = Groups.create();
-        group.setId(node.get("id").asText());
-        
-        // Read displayName from root level
-        if (node.has("displayName")) {
-            group.setDisplayName(node.get("displayName").asText());
-        }
-        
-        // Read name and description from the extension
-        String extensionKey = "urn:sap:cloud:scim:schemas:extension:custom:2.0:Group";
-        if (node.has(extensionKey)) {
-            JsonNode extension = node.get(extensionKey);
-            
-            // Read name from extension
-            if (extension.has("name")) {
-                group.setName(extension.get("name").asText());
+    /**
+     * True only if IAS answers 404; any other outcome keeps the row.
+     */
+    private boolean isGoneFromIas(TenantSync tenant, boolean users, String id) {
+        try {
+            if (users) {
+                tenant.client.getUserResource(id, null);
+            } else {
+                tenant.client.getGroupResource(id, null);
             }
-            
-            // Read description from extension
-            if (extension.has("description")) {
-                group.setDescription(extension.get("description").asText());
+            return false;
+        } catch (IasHttpException e) {
+            if (e.isNotFound()) return true;
+            System.err.println("[SYNC] [" + tenant.id + "] Could not confirm " + id + " is gone, keeping it: " + e.getMessage());
+            return false;
+        } catch (Exception e) {
+            System.err.println("[SYNC] [" + tenant.id + "] Could not confirm " + id + " is gone, keeping it: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Queues a row skipped because of a concurrent write, or stale but still in IAS;
+     * it is synced once the current cycle is done.
+     */
+    private void reRead(TenantSync tenant, String entity, String id) {
+        if (id == null) return;
+        (ChangeEvent.USERS.equals(entity) ? tenant.pendingUserIds : tenant.pendingGroupIds).add(id);
+        scheduleDrain(tenant);
+    }
+
+    // ========== VERSIONS ==========
+
+    /**
+     * Stored meta.version per ID, for the IDs of one page.
+     */
+    private Map<String, String> storedVersions(String entity, String tenantId, List<String> ids) {
+        List<String> present = ids.stream().filter(Objects::nonNull).toList();
+        Map<String, String> versions = new HashMap<>();
+        if (present.isEmpty()) return versions;
+
+        Result rows = db.run(Select.from(entity)
+                .columns("ID", "version")
+                .where(e -> e.get("tenant").eq(tenantId).and(e.get("ID").in(present))));
+        for (Row row : rows) {
+            if (row.get("version") != null) {
+                versions.put(row.get("ID").toString(), row.get("version").toString());
             }
         }
-        
-        return group;
+        return versions;
+    }
+
+    private static boolean isUnchanged(String id, String version, Map<String, String> storedVersions) {
+        return id != null && version != null && version.equals(storedVersions.get(id));
+    }
+
+    /**
+     * Unchanged resources are not mapped or rewritten, only stamped so the sweep keeps them.
+     * Only lastSyncedAt is touched, so this is safe for rows being written interactively too.
+     */
+    private void markSeen(String entity, List<String> ids, Instant syncedAt) {
+        if (ids.isEmpty()) return;
+        db.run(Update.entity(entity)
+                .data("lastSyncedAt", syncedAt)
+                .where(e -> e.get("ID").in(ids)));
+    }
+
+    private static Instant laterOf(Instant a, Instant b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return b.isAfter(a) ? b : a;
     }
 }
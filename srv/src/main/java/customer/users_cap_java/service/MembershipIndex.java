@@ -0,0 +1,364 @@
+package customer.users_cap_java.service;
+
+import com.sap.cds.ql.Select;
+import com.sap.cds.services.persistence.PersistenceService;
+import cds.gen.iasreplicaservice.GroupMembers;
+import cds.gen.iasreplicaservice.GroupMembers_;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory copy of the replica's GroupMembers, indexed both ways.
+ *
+ * User and group IDs are interned to int slots; each slot holds a sorted int[]
+ * of the slots on the other side, so a membership costs two ints instead of
+ * two row objects. Loaded from the table on first use, then kept current by the
+ * sync and by write-back after their writes are committed; a group whose write
+ * failed is reloaded from the table. Table reads run outside the lock and are
+ * swapped in, so lookups never wait for the database. Slots are never reused: a
+ * deleted user or group keeps its (empty) slot until restart.
+ */
+@Component
+public class MembershipIndex {
+
+    private static final int DB_PAGE_SIZE = 5000;
+    private static final int[] NONE = new int[0];
+
+    @Autowired
+    private PersistenceService db;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile boolean loaded;
+
+    // Writes made while the first load reads the table, replayed on top of what it read
+    private List<Runnable> pendingWrites;
+
+    private Slots users = new Slots();
+    private Slots groups = new Slots();
+
+    /**
+     * One side of the index: ID <-> slot, and the sorted slots each one is linked to.
+     * Group slots also keep their tenant, which is the tenant of all their memberships.
+     */
+    private static final class Slots {
+
+        final Map<String, Integer> slotOf = new HashMap<>();
+        String[] ids = new String[1024];
+        String[] tenants = new String[1024];
+        int[][] links = new int[1024][];
+        int size;
+
+        int intern(String id) {
+            Integer slot = slotOf.get(id);
+            if (slot != null) return slot;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                tenants = Arrays.copyOf(tenants, size * 2);
+                links = Arrays.copyOf(links, size * 2);
+            }
+            ids[size] = id;
+            links[size] = NONE;
+            slotOf.put(id, size);
+            return size++;
+        }
+
+        int[] linksOf(String id) {
+            Integer slot = slotOf.get(id);
+            return slot == null ? NONE : links[slot];
+        }
+    }
+
+    // ========== LOOKUPS ==========
+
+    public List<String> groupsOf(String userId) {
+        return read(() -> resolve(groups, users.linksOf(userId)));
+    }
+
+    public List<String> membersOf(String groupId) {
+        return read(() -> resolve(users, groups.linksOf(groupId)));
+    }
+
+    /**
+     * Member count per group of the tenant, for every group with at least one member.
+     */
+    public Map<String, Integer> memberCounts(String tenant) {
+        return read(() -> {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int group = 0; group < groups.size; group++) {
+                if (groups.links[group].length > 0 && tenant.equals(groups.tenants[group])) {
+                    counts.put(groups.ids[group], groups.links[group].length);
+                }
+            }
+            return counts;
+        });
+    }
+
+    /**
+     * Count of the tenant's groups per user, for every user in at least one of them.
+     */
+    public Map<String, Integer> groupCounts(String tenant) {
+        return read(() -> {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int user = 0; user < users.size; user++) {
+                int count = 0;
+                for (int group : users.links[user]) {
+                    if (tenant.equals(groups.tenants[group])) count++;
+                }
+                if (count > 0) {
+                    counts.put(users.ids[user], count);
+                }
+            }
+            return counts;
+        });
+    }
+
+    // ========== UPDATES ==========
+
+    public void add(String tenant, String groupId, Collection<String> userIds) {
+        write(() -> {
+            int group = groups.intern(groupId);
+            groups.tenants[group] = tenant;
+            for (String userId : userIds) {
+                link(group, users.intern(userId));
+            }
+        });
+    }
+
+    public void remove(String groupId, Collection<String> userIds) {
+        write(() -> {
+            Integer group = groups.slotOf.get(groupId);
+            if (group == null) return;
+            for (String userId : userIds) {
+                Integer user = users.slotOf.get(userId);
+                if (user == null) continue;
+                users.links[user] = delete(users.links[user], group);
+                groups.links[group] = delete(groups.links[group], user);
+            }
+        });
+    }
+
+    /**
+     * Drops every membership of the given users, e.g. after they were deleted.
+     */
+    public void removeUsers(Collection<String> userIds) {
+        write(() -> userIds.forEach(id -> unlink(users, groups, id)));
+    }
+
+    /**
+     * Drops every membership of the given groups, e.g. after they were deleted.
+     */
+    public void removeGroups(Collection<String> groupIds) {
+        write(() -> groupIds.forEach(id -> unlink(groups, users, id)));
+    }
+
+    /**
+     * Replaces a group's memberships with what the table holds, e.g. after a write to it failed.
+     */
+    public void reloadGroup(String groupId) {
+        if (!loaded) return;
+        List<GroupMembers> rows = db.run(Select.from(GroupMembers_.class)
+                .columns(m -> m.user_ID(), m -> m.tenant())
+                .where(m -> m.group_ID().eq(groupId)))
+                .listOf(GroupMembers.class);
+        write(() -> {
+            unlink(groups, users, groupId);
+            if (rows.isEmpty()) return;
+            int group = groups.intern(groupId);
+            groups.tenants[group] = rows.get(0).getTenant();
+            for (GroupMembers m : rows) {
+                link(group, users.intern(m.getUserId()));
+            }
+        });
+    }
+
+    // ========== LOADING ==========
+
+    /**
+     * Reads GroupMembers into the given empty slots, in key order (keyset paging),
+     * counting links per slot first so every array is allocated at its final size.
+     */
+    private void load(Slots users, Slots groups) {
+        long start = System.currentTimeMillis();
+        int[] pairs = new int[2 * DB_PAGE_SIZE];
+        int count = 0;
+        String afterGroup = null;
+        String afterUser = null;
+
+        while (true) {
+            Select<GroupMembers_> select = Select.from(GroupMembers_.class)
+                    .columns(m -> m.group_ID(), m -> m.user_ID(), m -> m.tenant())
+                    .orderBy(m -> m.group_ID().asc(), m -> m.user_ID().asc())
+                    .limit(DB_PAGE_SIZE);
+            if (afterGroup != null) {
+                String lastGroup = afterGroup;
+                String lastUser = afterUser;
+                select.where(m -> m.group_ID().gt(lastGroup)
+                        .or(m.group_ID().eq(lastGroup).and(m.user_ID().gt(lastUser))));
+            }
+
+            List<GroupMembers> page = db.run(select).listOf(GroupMembers.class);
+            for (GroupMembers m : page) {
+                if (2 * count + 2 > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[2 * count] = groups.intern(m.getGroupId());
+                groups.tenants[pairs[2 * count]] = m.getTenant();
+                pairs[2 * count + 1] = users.intern(m.getUserId());
+                count++;
+            }
+            if (page.size() < DB_PAGE_SIZE) break;
+            afterGroup = page.get(page.size() - 1).getGroupId();
+            afterUser = page.get(page.size() - 1).getUserId();
+        }
+
+        int[] groupSizes = new int[groups.size];
+        int[] userSizes = new int[users.size];
+        for (int i = 0; i < count; i++) {
+            groupSizes[pairs[2 * i]]++;
+            userSizes[pairs[2 * i + 1]]++;
+        }
+        for (int g = 0; g < groups.size; g++) groups.links[g] = new int[groupSizes[g]];
+        for (int u = 0; u < users.size; u++) users.links[u] = new int[userSizes[u]];
+        Arrays.fill(groupSizes, 0);
+        Arrays.fill(userSizes, 0);
+        for (int i = 0; i < count; i++) {
+            int group = pairs[2 * i];
+            int user = pairs[2 * i + 1];
+            groups.links[group][groupSizes[group]++] = user;
+            users.links[user][userSizes[user]++] = group;
+        }
+        for (int g = 0; g < groups.size; g++) Arrays.sort(groups.links[g]);
+        for (int u = 0; u < users.size; u++) Arrays.sort(users.links[u]);
+
+        System.out.println("[SYNC] Membership index loaded: " + count + " memberships, " + users.size + " users, "
+                + groups.size + " groups in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Reads the table without holding the index lock, then swaps the result in and replays
+     * the writes made meanwhile. Writes are idempotent, so replaying one the read already
+     * saw is harmless; writes made before the read started are in the table.
+     */
+    private void ensureLoaded() {
+        if (loaded) return;
+        loadLock.lock();
+        try {
+            if (loaded) return;
+            lock.writeLock().lock();
+            try {
+                pendingWrites = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Slots loadedUsers = new Slots();
+            Slots loadedGroups = new Slots();
+            try {
+                load(loadedUsers, loadedGroups);
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    pendingWrites = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                users = loadedUsers;
+                groups = loadedGroups;
+                pendingWrites.forEach(Runnable::run);
+                pendingWrites = null;
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    // ========== INTERNALS ==========
+
+    private <T> T read(Supplier<T> action) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                action.run();
+            } else if (pendingWrites != null) {
+                pendingWrites.add(action);
+            }
+            // Before the first load starts the table is the source of truth; the load will see this write
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void link(int group, int user) {
+        users.links[user] = insert(users.links[user], group);
+        groups.links[group] = insert(groups.links[group], user);
+    }
+
+    private static void unlink(Slots side, Slots other, String id) {
+        Integer slot = side.slotOf.get(id);
+        if (slot == null) return;
+        for (int linked : side.links[slot]) {
+            other.links[linked] = delete(other.links[linked], slot);
+        }
+        side.links[slot] = NONE;
+    }
+
+    private static List<String> resolve(Slots side, int[] slots) {
+        List<String> ids = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            ids.add(side.ids[slot]);
+        }
+        return ids;
+    }
+
+    private static int[] insert(int[] sorted, int value) {
+        int at = Arrays.binarySearch(sorted, value);
+        if (at >= 0) return sorted;
+        at = -at - 1;
+        int[] grown = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, grown, 0, at);
+        grown[at] = value;
+        System.arraycopy(sorted, at, grown, at + 1, sorted.length - at);
+        return grown;
+    }
+
+    private static int[] delete(int[] sorted, int value) {
+        int at = Arrays.binarySearch(sorted, value);
+        if (at < 0) return sorted;
+        if (sorted.length == 1) return NONE;
+        int[] shrunk = new int[sorted.length - 1];
+        System.arraycopy(sorted, 0, shrunk, 0, at);
+        System.arraycopy(sorted, at + 1, shrunk, at, sorted.length - at - 1);
+        return shrunk;
+    }
+}
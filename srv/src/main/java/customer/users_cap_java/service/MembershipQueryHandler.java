@@ -0,0 +1,77 @@
+package customer.users_cap_java.service;
+
+import com.sap.cds.services.ErrorStatuses;
+import com.sap.cds.services.ServiceException;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.On;
+import com.sap.cds.services.handler.annotations.ServiceName;
+import customer.users_cap_java.client.IasClientRegistry;
+import cds.gen.iasreplicaservice.GroupsOfUserContext;
+import cds.gen.iasreplicaservice.MembersOfGroupContext;
+import cds.gen.iasreplicaservice.MembershipCount;
+import cds.gen.iasreplicaservice.MembershipCountsContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@ServiceName("IasReplicaService")
+public class MembershipQueryHandler implements EventHandler {
+
+    private final MembershipIndex membershipIndex;
+    private final IasClientRegistry clients;
+
+    @Autowired
+    public MembershipQueryHandler(MembershipIndex membershipIndex, IasClientRegistry clients) {
+        this.membershipIndex = membershipIndex;
+        this.clients = clients;
+    }
+
+    @On(event = GroupsOfUserContext.CDS_NAME)
+    public void onGroupsOfUser(GroupsOfUserContext ctx) {
+        ctx.setResult(membershipIndex.groupsOf(requireId("userId", ctx.getUserId())));
+    }
+
+    @On(event = MembersOfGroupContext.CDS_NAME)
+    public void onMembersOfGroup(MembersOfGroupContext ctx) {
+        ctx.setResult(membershipIndex.membersOf(requireId("groupId", ctx.getGroupId())));
+    }
+
+    @On(event = MembershipCountsContext.CDS_NAME)
+    public void onMembershipCounts(MembershipCountsContext ctx) {
+        String kind = ctx.getKind() != null ? ctx.getKind() : "Group";
+        String tenant;
+        try {
+            tenant = clients.forTenant(ctx.getTenant()).getTenantId();
+        } catch (IllegalArgumentException e) {
+            // Unknown tenant
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, e.getMessage());
+        }
+        Map<String, Integer> counts = switch (kind) {
+            case "Group" -> membershipIndex.memberCounts(tenant);
+            case "User" -> membershipIndex.groupCounts(tenant);
+            default -> throw new ServiceException(ErrorStatuses.BAD_REQUEST,
+                    "Unknown membership count kind '" + kind + "', expected Group or User");
+        };
+
+        List<MembershipCount> result = new ArrayList<>(counts.size());
+        counts.forEach((id, count) -> {
+            MembershipCount entry = MembershipCount.create();
+            entry.setId(id);
+            entry.setCount(count);
+            result.add(entry);
+        });
+        ctx.setResult(result);
+    }
+
+    private static String requireId(String parameter, String id) {
+        if (id == null || id.isEmpty()) {
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, parameter + " is required");
+        }
+        return id;
+    }
+}
@@ -0,0 +1,433 @@
+package customer.users_cap_java.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import cds.gen.iasreplicaservice.Groups;
+import cds.gen.iasreplicaservice.Users;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Writes outbound SCIM payloads straight to a per-thread reusable buffer with a
+ * {@link JsonGenerator}. Field names and constant values are encoded once.
+ */
+public class ScimPayloadWriter {
+
+    static final String SCHEMA_USER = "urn:ietf:params:scim:schemas:core:2.0:User";
+    static final String SCHEMA_SAP_USER = "urn:ietf:params:scim:schemas:extension:sap:2.0:User";
+    static final String SCHEMA_ENTERPRISE_USER = "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+    static final String SCHEMA_GROUP = "urn:ietf:params:scim:schemas:core:2.0:Group";
+    static final String SCHEMA_CUSTOM_GROUP = "urn:sap:cloud:scim:schemas:extension:custom:2.0:Group";
+    static final String SCHEMA_PATCH_OP = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
+
+    // Pre-encoded "schemas" arrays
+    private static final SerializableString USER_SCHEMAS = raw(
+            "[\"" + SCHEMA_USER + "\",\"" + SCHEMA_SAP_USER + "\"]");
+    private static final SerializableString ENTERPRISE_USER_SCHEMAS = raw(
+            "[\"" + SCHEMA_USER + "\",\"" + SCHEMA_SAP_USER + "\",\"" + SCHEMA_ENTERPRISE_USER + "\"]");
+    private static final SerializableString GROUP_SCHEMAS = raw(
+            "[\"" + SCHEMA_GROUP + "\",\"" + SCHEMA_CUSTOM_GROUP + "\"]");
+    private static final SerializableString PATCH_OP_SCHEMAS = raw(
+            "[\"" + SCHEMA_PATCH_OP + "\"]");
+
+    // Pre-encoded field names
+    private static final SerializedString F_SCHEMAS = new SerializedString("schemas");
+    private static final SerializedString F_ID = new SerializedString("id");
+    private static final SerializedString F_USER_NAME = new SerializedString("userName");
+    private static final SerializedString F_NAME = new SerializedString("name");
+    private static final SerializedString F_GIVEN_NAME = new SerializedString("givenName");
+    private static final SerializedString F_FAMILY_NAME = new SerializedString("familyName");
+    private static final SerializedString F_EMAILS = new SerializedString("emails");
+    private static final SerializedString F_VALUE = new SerializedString("value");
+    private static final SerializedString F_PRIMARY = new SerializedString("primary");
+    private static final SerializedString F_ACTIVE = new SerializedString("active");
+    private static final SerializedString F_USER_TYPE = new SerializedString("userType");
+    private static final SerializedString F_SAP_USER = new SerializedString(SCHEMA_SAP_USER);
+    private static final SerializedString F_USER_ID = new SerializedString("userId");
+    private static final SerializedString F_VALID_FROM = new SerializedString("validFrom");
+    private static final SerializedString F_VALID_TO = new SerializedString("validTo");
+    private static final SerializedString F_ENTERPRISE_USER = new SerializedString(SCHEMA_ENTERPRISE_USER);
+    private static final SerializedString F_ORGANIZATION = new SerializedString("organization");
+    private static final SerializedString F_ADDRESSES = new SerializedString("addresses");
+    private static final SerializedString F_TYPE = new SerializedString("type");
+    private static final SerializedString F_COUNTRY = new SerializedString("country");
+    private static final SerializedString F_LOCALITY = new SerializedString("locality");
+    private static final SerializedString F_DISPLAY_NAME = new SerializedString("displayName");
+    private static final SerializedString F_CUSTOM_GROUP = new SerializedString(SCHEMA_CUSTOM_GROUP);
+    private static final SerializedString F_DESCRIPTION = new SerializedString("description");
+    private static final SerializedString F_OPERATIONS = new SerializedString("Operations");
+    private static final SerializedString F_OP = new SerializedString("op");
+    private static final SerializedString F_PATH = new SerializedString("path");
+
+    private static final SerializedString V_HOME = new SerializedString("home");
+    private static final SerializedString V_ADD = new SerializedString("add");
+    private static final SerializedString V_REMOVE = new SerializedString("remove");
+    private static final SerializedString V_MEMBERS = new SerializedString("members");
+    private static final SerializedString V_REPLACE = new SerializedString("replace");
+
+    // Pre-encoded PATCH paths
+    private static final SerializedString P_USER_NAME = new SerializedString("userName");
+    private static final SerializedString P_GIVEN_NAME = new SerializedString("name.givenName");
+    private static final SerializedString P_FAMILY_NAME = new SerializedString("name.familyName");
+    private static final SerializedString P_EMAILS = new SerializedString("emails");
+    private static final SerializedString P_ACTIVE = new SerializedString("active");
+    private static final SerializedString P_USER_TYPE = new SerializedString("userType");
+    private static final SerializedString P_SAP_USER_ID = new SerializedString(SCHEMA_SAP_USER + ":userId");
+    private static final SerializedString P_VALID_FROM = new SerializedString(SCHEMA_SAP_USER + ":validFrom");
+    private static final SerializedString P_VALID_TO = new SerializedString(SCHEMA_SAP_USER + ":validTo");
+    private static final SerializedString P_ORGANIZATION = new SerializedString(SCHEMA_ENTERPRISE_USER + ":organization");
+    private static final SerializedString P_ADDRESSES = new SerializedString("addresses");
+    private static final SerializedString P_DISPLAY_NAME = new SerializedString("displayName");
+    private static final SerializedString P_DESCRIPTION = new SerializedString(SCHEMA_CUSTOM_GROUP + ":description");
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // Buffers that grew past this (e.g. huge member batches) are not kept per thread
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ThreadLocal<ByteArrayBuilder> buffers =
+            ThreadLocal.withInitial(() -> new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+
+    @FunctionalInterface
+    private interface Body {
+        void write(JsonGenerator gen) throws IOException;
+    }
+
+    // ========== USERS ==========
+
+    public byte[] writeUser(Users user) throws IOException {
+        return write(gen -> {
+            String loginName = user.getLoginName() != null ? user.getLoginName() : user.getEmail();
+            boolean hasCompany = notEmpty(user.getCompany());
+
+            gen.writeStartObject();
+            gen.writeFieldName(F_SCHEMAS);
+            gen.writeRawValue(hasCompany ? ENTERPRISE_USER_SCHEMAS : USER_SCHEMAS);
+
+            gen.writeFieldName(F_USER_NAME);
+            writeString(gen, loginName);
+
+            gen.writeFieldName(F_NAME);
+            gen.writeStartObject();
+            gen.writeFieldName(F_GIVEN_NAME);
+            gen.writeString(user.getFirstName() != null ? user.getFirstName() : "");
+            gen.writeFieldName(F_FAMILY_NAME);
+            writeString(gen, user.getLastName());
+            gen.writeEndObject();
+
+            gen.writeFieldName(F_EMAILS);
+            gen.writeStartArray();
+            gen.writeStartObject();
+            gen.writeFieldName(F_VALUE);
+            writeString(gen, user.getEmail());
+            gen.writeFieldName(F_PRIMARY);
+            gen.writeBoolean(true);
+            gen.writeEndObject();
+            gen.writeEndArray();
+
+            gen.writeFieldName(F_ACTIVE);
+            gen.writeBoolean("Active".equals(user.getStatus()));
+            gen.writeFieldName(F_USER_TYPE);
+            gen.writeString(user.getUserType() != null ? user.getUserType() : "public");
+
+            gen.writeFieldName(F_SAP_USER);
+            gen.writeStartObject();
+            gen.writeFieldName(F_USER_ID);
+            writeString(gen, loginName);
+            if (user.getValidFrom() != null) {
+                gen.writeFieldName(F_VALID_FROM);
+                gen.writeString(user.getValidFrom().toString());
+            }
+            if (user.getValidTo() != null) {
+                gen.writeFieldName(F_VALID_TO);
+                gen.writeString(user.getValidTo().toString());
+            }
+            gen.writeEndObject();
+
+            if (hasCompany) {
+                gen.writeFieldName(F_ENTERPRISE_USER);
+                gen.writeStartObject();
+                gen.writeFieldName(F_ORGANIZATION);
+                gen.writeString(user.getCompany());
+                gen.writeEndObject();
+            }
+
+            boolean hasCountry = notEmpty(user.getCountry());
+            boolean hasCity = notEmpty(user.getCity());
+            if (hasCountry || hasCity) {
+                gen.writeFieldName(F_ADDRESSES);
+                gen.writeStartArray();
+                gen.writeStartObject();
+                gen.writeFieldName(F_TYPE);
+                gen.writeString(V_HOME);
+                gen.writeFieldName(F_PRIMARY);
+                gen.writeBoolean(false);
+                if (hasCountry) {
+                    gen.writeFieldName(F_COUNTRY);
+                    gen.writeString(user.getCountry());
+                }
+                if (hasCity) {
+                    gen.writeFieldName(F_LOCALITY);
+                    gen.writeString(user.getCity());
+                }
+                gen.writeEndObject();
+                gen.writeEndArray();
+            }
+
+            gen.writeEndObject();
+        });
+    }
+
+    // ========== GROUPS ==========
+
+    public byte[] writeGroup(Groups group) throws IOException {
+        return write(gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(F_SCHEMAS);
+            gen.writeRawValue(GROUP_SCHEMAS);
+
+            gen.writeFieldName(F_DISPLAY_NAME);
+            writeString(gen, group.getDisplayName());
+
+            // Description lives in the SAP custom extension namespace
+            if (group.getDescription() != null) {
+                gen.writeFieldName(F_CUSTOM_GROUP);
+                gen.writeStartObject();
+                gen.writeFieldName(F_DESCRIPTION);
+                gen.writeString(group.getDescription());
+                gen.writeEndObject();
+            }
+
+            // For updates, include the ID if it exists
+            if (group.getId() != null) {
+                gen.writeFieldName(F_ID);
+                gen.writeString(group.getId());
+            }
+
+            gen.writeEndObject();
+        });
+    }
+
+    // ========== ATTRIBUTE PATCHES ==========
+
+    /**
+     * One operation per changed replica attribute: "replace" with the new value,
+     * or "remove" when it was cleared. {@code user} is the state after the update.
+     */
+    public byte[] writeUserPatch(Set<String> changed, Users user) throws IOException {
+        return write(gen -> {
+            writePatchStart(gen);
+
+            if (changed.contains(Users.LOGIN_NAME)) {
+                writeAttributeOp(gen, P_USER_NAME, user.getLoginName());
+                writeAttributeOp(gen, P_SAP_USER_ID, user.getLoginName());
+            }
+            if (changed.contains(Users.FIRST_NAME)) writeAttributeOp(gen, P_GIVEN_NAME, user.getFirstName());
+            if (changed.contains(Users.LAST_NAME)) writeAttributeOp(gen, P_FAMILY_NAME, user.getLastName());
+            if (changed.contains(Users.USER_TYPE)) writeAttributeOp(gen, P_USER_TYPE, user.getUserType());
+            if (changed.contains(Users.VALID_FROM)) writeAttributeOp(gen, P_VALID_FROM, text(user.getValidFrom()));
+            if (changed.contains(Users.VALID_TO)) writeAttributeOp(gen, P_VALID_TO, text(user.getValidTo()));
+            if (changed.contains(Users.COMPANY)) writeAttributeOp(gen, P_ORGANIZATION, user.getCompany());
+
+            if (changed.contains(Users.STATUS)) {
+                writeOpStart(gen, V_REPLACE, P_ACTIVE);
+                gen.writeBoolean("Active".equals(user.getStatus()));
+                gen.writeEndObject();
+            }
+
+            if (changed.contains(Users.EMAIL)) {
+                writeOpStart(gen, V_REPLACE, P_EMAILS);
+                gen.writeStartArray();
+                gen.writeStartObject();
+                gen.writeFieldName(F_VALUE);
+                writeString(gen, user.getEmail());
+                gen.writeFieldName(F_PRIMARY);
+                gen.writeBoolean(true);
+                gen.writeEndObject();
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+
+            // Country and city share the single home address
+            if (changed.contains(Users.COUNTRY) || changed.contains(Users.CITY)) {
+                boolean hasCountry = notEmpty(user.getCountry());
+                boolean hasCity = notEmpty(user.getCity());
+                if (!hasCountry && !hasCity) {
+                    writeRemoveOp(gen, P_ADDRESSES);
+                } else {
+                    writeOpStart(gen, V_REPLACE, P_ADDRESSES);
+                    gen.writeStartArray();
+                    gen.writeStartObject();
+                    gen.writeFieldName(F_TYPE);
+                    gen.writeString(V_HOME);
+                    gen.writeFieldName(F_PRIMARY);
+                    gen.writeBoolean(false);
+                    if (hasCountry) {
+                        gen.writeFieldName(F_COUNTRY);
+                        gen.writeString(user.getCountry());
+                    }
+                    if (hasCity) {
+                        gen.writeFieldName(F_LOCALITY);
+                        gen.writeString(user.getCity());
+                    }
+                    gen.writeEndObject();
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                }
+            }
+
+            writePatchEnd(gen);
+        });
+    }
+
+    /**
+     * Like {@link #writeUserPatch(Set, Users)}. The group name is immutable and never patched.
+     */
+    public byte[] writeGroupPatch(Set<String> changed, Groups group) throws IOException {
+        return write(gen -> {
+            writePatchStart(gen);
+            if (changed.contains(Groups.DISPLAY_NAME)) writeAttributeOp(gen, P_DISPLAY_NAME, group.getDisplayName());
+            if (changed.contains(Groups.DESCRIPTION)) writeAttributeOp(gen, P_DESCRIPTION, group.getDescription());
+            writePatchEnd(gen);
+        });
+    }
+
+    private static void writeAttributeOp(JsonGenerator gen, SerializedString path, String value) throws IOException {
+        if (!notEmpty(value)) {
+            writeRemoveOp(gen, path);
+            return;
+        }
+        writeOpStart(gen, V_REPLACE, path);
+        gen.writeString(value);
+        gen.writeEndObject();
+    }
+
+    private static void writeRemoveOp(JsonGenerator gen, SerializedString path) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(F_OP);
+        gen.writeString(V_REMOVE);
+        gen.writeFieldName(F_PATH);
+        gen.writeString(path);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Opens an operation object up to its "value" field; the caller writes the value and closes it.
+     */
+    private static void writeOpStart(JsonGenerator gen, SerializedString op, SerializedString path) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(F_OP);
+        gen.writeString(op);
+        gen.writeFieldName(F_PATH);
+        gen.writeString(path);
+        gen.writeFieldName(F_VALUE);
+    }
+
+    // ========== MEMBERSHIP PATCHES ==========
+
+    /**
+     * One "add" operation carrying all given members.
+     */
+    public byte[] writeAddMembersPatch(Collection<String> iasUserIds) throws IOException {
+        return write(gen -> {
+            writePatchStart(gen);
+
+            gen.writeStartObject();
+            gen.writeFieldName(F_OP);
+            gen.writeString(V_ADD);
+            gen.writeFieldName(F_PATH);
+            gen.writeString(V_MEMBERS);
+            gen.writeFieldName(F_VALUE);
+            gen.writeStartArray();
+            for (String iasUserId : iasUserIds) {
+                gen.writeStartObject();
+                gen.writeFieldName(F_VALUE);
+                gen.writeString(iasUserId);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+
+            writePatchEnd(gen);
+        });
+    }
+
+    /**
+     * One "remove" operation per member, filtered by value.
+     */
+    public byte[] writeRemoveMembersPatch(Collection<String> iasUserIds) throws IOException {
+        return write(gen -> {
+            writePatchStart(gen);
+
+            for (String iasUserId : iasUserIds) {
+                gen.writeStartObject();
+                gen.writeFieldName(F_OP);
+                gen.writeString(V_REMOVE);
+                gen.writeFieldName(F_PATH);
+                gen.writeString("members[value eq \"" + iasUserId + "\"]");
+                gen.writeEndObject();
+            }
+
+            writePatchEnd(gen);
+        });
+    }
+
+    private static void writePatchStart(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(F_SCHEMAS);
+        gen.writeRawValue(PATCH_OP_SCHEMAS);
+        gen.writeFieldName(F_OPERATIONS);
+        gen.writeStartArray();
+    }
+
+    private static void writePatchEnd(JsonGenerator gen) throws IOException {
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    // ========== HELPERS ==========
+
+    private byte[] write(Body body) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        boolean retain = false;
+        try {
+            try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+                body.write(gen);
+            }
+            // toByteArray() resets the builder, so the size has to be read before it
+            retain = buffer.size() <= MAX_RETAINED_BUFFER_SIZE;
+            return buffer.toByteArray();
+        } finally {
+            if (!retain) {
+                // Oversized or failed midway: let the next call start from a fresh builder
+                buffers.remove();
+            }
+        }
+    }
+
+    private static void writeString(JsonGenerator gen, String value) throws IOException {
+        if (value != null) {
+            gen.writeString(value);
+        } else {
+            gen.writeNull();
+        }
+    }
+
+    private static String text(Instant value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static boolean notEmpty(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static SerializableString raw(String json) {
+        return new SerializedString(json);
+    }
+}
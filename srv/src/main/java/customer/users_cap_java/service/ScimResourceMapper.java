@@ -0,0 +1,134 @@
+package customer.users_cap_java.service;
+
+import customer.users_cap_java.client.scim.ScimGroup;
+import customer.users_cap_java.client.scim.ScimMeta;
+import customer.users_cap_java.client.scim.ScimUser;
+import cds.gen.iasreplicaservice.Groups;
+import cds.gen.iasreplicaservice.Users;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps typed SCIM resources onto replica entities. Attributes that cannot be
+ * converted are left unset and counted in the caller's counter; resources
+ * without an id are rejected. Stateless, so concurrent cycles can share it.
+ */
+@Component
+public class ScimResourceMapper {
+
+    // Replica attributes written from SCIM resources
+    public static final List<String> USER_ATTRIBUTES = List.of(
+            Users.FIRST_NAME, Users.LAST_NAME, Users.EMAIL, Users.USER_TYPE, Users.LOGIN_NAME, Users.STATUS,
+            Users.VALID_FROM, Users.VALID_TO, Users.COMPANY, Users.COUNTRY, Users.CITY);
+    public static final List<String> GROUP_ATTRIBUTES = List.of(Groups.NAME, Groups.DISPLAY_NAME, Groups.DESCRIPTION);
+
+    public Users mapUser(ScimUser resource) {
+        return mapUser(resource, null);
+    }
+
+    /**
+     * Like {@link #mapUser(ScimUser)}, adding attributes that failed to convert to {@code failures}.
+     */
+    public Users mapUser(ScimUser resource, AtomicInteger failures) {
+        Users user = Users.create();
+        user.setId(requireId(resource.getId(), "user"));
+        user.setVersion(version(resource.getMeta()));
+
+        if (resource.getUserName() != null) {
+            user.setLoginName(resource.getUserName());
+        }
+
+        ScimUser.Name name = resource.getName();
+        if (name != null) {
+            if (name.getGivenName() != null) user.setFirstName(name.getGivenName());
+            if (name.getFamilyName() != null) user.setLastName(name.getFamilyName());
+        }
+
+        ScimUser.Email email = first(resource.getEmails());
+        if (email != null) {
+            user.setEmail(email.getValue());
+        }
+
+        user.setStatus(Boolean.TRUE.equals(resource.getActive()) ? "Active" : "Inactive");
+        user.setUserType(resource.getUserType() != null ? resource.getUserType() : "public");
+
+        // SAP extension: validFrom, validTo
+        ScimUser.SapExtension sapExt = resource.getSapExtension();
+        if (sapExt != null) {
+            Instant validFrom = parseInstant(sapExt.getValidFrom(), resource.getId(), "validFrom", failures);
+            if (validFrom != null) user.setValidFrom(validFrom);
+            Instant validTo = parseInstant(sapExt.getValidTo(), resource.getId(), "validTo", failures);
+            if (validTo != null) user.setValidTo(validTo);
+        }
+
+        // Enterprise extension: organization -> company
+        ScimUser.EnterpriseExtension entExt = resource.getEnterpriseExtension();
+        if (entExt != null && entExt.getOrganization() != null) {
+            user.setCompany(entExt.getOrganization());
+        }
+
+        // Addresses: country, locality -> city (from first address)
+        ScimUser.Address addr = first(resource.getAddresses());
+        if (addr != null) {
+            if (addr.getCountry() != null) user.setCountry(addr.getCountry());
+            if (addr.getLocality() != null) user.setCity(addr.getLocality());
+        }
+
+        return user;
+    }
+
+    public Groups mapGroup(ScimGroup resource) {
+        Groups group = Groups.create();
+        group.setId(requireId(resource.getId(), "group"));
+        group.setVersion(version(resource.getMeta()));
+
+        // Read displayName from root level
+        if (resource.getDisplayName() != null) {
+            group.setDisplayName(resource.getDisplayName());
+        }
+
+        // Read name and description from the extension
+        ScimGroup.CustomExtension extension = resource.getCustomExtension();
+        if (extension != null) {
+            if (extension.getName() != null) group.setName(extension.getName());
+            if (extension.getDescription() != null) group.setDescription(extension.getDescription());
+        }
+
+        return group;
+    }
+
+    public Instant lastModified(ScimMeta meta, String resourceId, AtomicInteger failures) {
+        return meta != null ? parseInstant(meta.getLastModified(), resourceId, "meta.lastModified", failures) : null;
+    }
+
+    public static String version(ScimMeta meta) {
+        return meta != null ? meta.getVersion() : null;
+    }
+
+    private static Instant parseInstant(String value, String resourceId, String attribute, AtomicInteger failures) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            if (failures != null) failures.incrementAndGet();
+            System.err.println("[SYNC] Cannot parse " + attribute + " '" + value + "' of resource " + resourceId);
+            return null;
+        }
+    }
+
+    private static String requireId(String id, String kind) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("SCIM " + kind + " without id");
+        }
+        return id;
+    }
+
+    private static <T> T first(List<T> values) {
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+}
@@ -0,0 +1,154 @@
+package customer.users_cap_java.service;
+
+import com.sap.cds.ql.Delete;
+import com.sap.cds.ql.Insert;
+import com.sap.cds.ql.Select;
+import com.sap.cds.ql.Update;
+import com.sap.cds.ql.Upsert;
+import com.sap.cds.services.persistence.PersistenceService;
+import cds.gen.iasreplicaservice.SyncCheckpoints;
+import cds.gen.iasreplicaservice.SyncCheckpoints_;
+import cds.gen.iasreplicaservice.SyncQuarantine;
+import cds.gen.iasreplicaservice.SyncQuarantine_;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Persists sync progress per tenant and phase so a cycle that fails mid-way resumes
+ * from the last completed page instead of downloading everything again.
+ */
+@Component
+public class SyncCheckpointStore {
+
+    public static final String PHASE_USERS = "Users";
+    public static final String PHASE_GROUPS = "Groups";
+    public static final String PHASE_MEMBERSHIPS = "Memberships";
+
+    static final List<String> PHASES = List.of(PHASE_USERS, PHASE_GROUPS, PHASE_MEMBERSHIPS);
+
+    static final String PENDING = "Pending";
+    static final String RUNNING = "Running";
+    static final String COMPLETED = "Completed";
+
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    @Autowired
+    private PersistenceService db;
+
+    /**
+     * Returns the start time of the cycle to run: the interrupted one if any
+     * phase is still open, otherwise a new cycle starting now.
+     */
+    public Instant resumeOrStartCycle(String tenant) {
+        Instant openStart = openCycleStart(tenant);
+        if (openStart != null) {
+            System.out.println("[SYNC] [" + tenant + "] Resuming cycle started at " + openStart);
+            return openStart;
+        }
+
+        Instant cycleStart = Instant.now();
+        for (String phase : PHASES) {
+            SyncCheckpoints previous = get(tenant, phase);
+
+            SyncCheckpoints cp = SyncCheckpoints.create();
+            cp.setTenant(tenant);
+            cp.setPhase(phase);
+            cp.setStatus(PENDING);
+            cp.setNextIndex(1);
+            cp.setProcessed(0);
+            cp.setFailed(0);
+            cp.setHighWaterMark(previous != null ? previous.getHighWaterMark() : null);
+            cp.setCycleStartedAt(cycleStart);
+            cp.setUpdatedAt(cycleStart);
+            db.run(Upsert.into(SyncCheckpoints_.class).entry(cp));
+        }
+        return cycleStart;
+    }
+
+    /**
+     * Start time of the interrupted cycle, or null if every phase of the last one completed.
+     */
+    private Instant openCycleStart(String tenant) {
+        var open = db.run(Select.from(SyncCheckpoints_.class)
+                .where(c -> c.tenant().eq(tenant).and(c.status().ne(COMPLETED))))
+                .listOf(SyncCheckpoints.class);
+        return open.isEmpty() ? null : open.get(0).getCycleStartedAt();
+    }
+
+    public SyncCheckpoints get(String tenant, String phase) {
+        return db.run(Select.from(SyncCheckpoints_.class)
+                .where(c -> c.tenant().eq(tenant).and(c.phase().eq(phase))))
+                .first(SyncCheckpoints.class)
+                .orElse(null);
+    }
+
+    public boolean isCompleted(SyncCheckpoints cp) {
+        return cp != null && COMPLETED.equals(cp.getStatus());
+    }
+
+    /**
+     * Records that all resources before {@code nextIndex} have been applied.
+     */
+    public void savePage(String tenant, String phase, int nextIndex, int processed, int failed, Instant highWaterMark) {
+        SyncCheckpoints cp = SyncCheckpoints.create();
+        cp.setTenant(tenant);
+        cp.setPhase(phase);
+        cp.setStatus(RUNNING);
+        cp.setNextIndex(nextIndex);
+        cp.setProcessed(processed);
+        cp.setFailed(failed);
+        cp.setHighWaterMark(highWaterMark);
+        cp.setUpdatedAt(Instant.now());
+        db.run(Update.entity(SyncCheckpoints_.class).data(cp)
+                .where(c -> c.tenant().eq(tenant).and(c.phase().eq(phase))));
+    }
+
+    public void complete(String tenant, String phase) {
+        SyncCheckpoints cp = SyncCheckpoints.create();
+        cp.setTenant(tenant);
+        cp.setPhase(phase);
+        cp.setStatus(COMPLETED);
+        cp.setUpdatedAt(Instant.now());
+        db.run(Update.entity(SyncCheckpoints_.class).data(cp)
+                .where(c -> c.tenant().eq(tenant).and(c.phase().eq(phase))));
+    }
+
+    /**
+     * Parks a resource that could not be mapped or written, so the cycle can continue.
+     * One row per tenant, phase and resource: a resource failing again only refreshes it.
+     */
+    public void quarantine(String tenant, String phase, String resourceId, String payload, Exception e) {
+        System.err.println("[SYNC] [" + tenant + "] Quarantined " + phase + " resource " + resourceId + ": " + e.getMessage());
+
+        String reason = e.getClass().getSimpleName() + ": " + e.getMessage();
+        if (reason.length() > MAX_REASON_LENGTH) {
+            reason = reason.substring(0, MAX_REASON_LENGTH);
+        }
+
+        SyncQuarantine q = SyncQuarantine.create();
+        q.setReason(reason);
+        q.setPayload(payload);
+        long updated = db.run(Update.entity(SyncQuarantine_.class).data(q)
+                .where(r -> r.tenant().eq(tenant).and(r.phase().eq(phase)).and(r.resourceId().eq(resourceId))))
+                .rowCount();
+        if (updated == 0) {
+            q.setTenant(tenant);
+            q.setPhase(phase);
+            q.setResourceId(resourceId);
+            db.run(Insert.into(SyncQuarantine_.class).entry(q));
+        }
+    }
+
+    /**
+     * Clears the quarantine of resources that synced cleanly.
+     */
+    public void release(String tenant, String phase, List<String> resourceIds) {
+        if (resourceIds.isEmpty()) return;
+        db.run(Delete.from(SyncQuarantine_.class)
+                .where(r -> r.tenant().eq(tenant).and(r.phase().eq(phase)).and(r.resourceId().in(resourceIds))));
+    }
+}
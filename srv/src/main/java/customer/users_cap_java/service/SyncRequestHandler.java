@@ -0,0 +1,72 @@
+package customer.users_cap_java.service;
+
+import com.sap.cds.services.ErrorStatuses;
+import com.sap.cds.services.ServiceException;
+import com.sap.cds.services.handler.EventHandler;
+import com.sap.cds.services.handler.annotations.On;
+import com.sap.cds.services.handler.annotations.ServiceName;
+import cds.gen.iasreplicaservice.DriftReportContext;
+import cds.gen.iasreplicaservice.RequestSyncContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component
+@ServiceName("IasReplicaService")
+public class SyncRequestHandler implements EventHandler {
+
+    private final IasSyncScheduler syncScheduler;
+    private final DriftReportService driftReport;
+
+    @Autowired
+    public SyncRequestHandler(IasSyncScheduler syncScheduler, DriftReportService driftReport) {
+        this.syncScheduler = syncScheduler;
+        this.driftReport = driftReport;
+    }
+
+    @On(event = RequestSyncContext.CDS_NAME)
+    public void onRequestSync(RequestSyncContext ctx) {
+        String scope = ctx.getScope() != null ? ctx.getScope() : "All";
+        String id = ctx.getId();
+        String tenant = ctx.getTenant();
+
+        try {
+            switch (scope) {
+                case "All" -> syncScheduler.requestFullSync(tenant);
+                case "User" -> syncScheduler.requestUserSync(tenant, requireId(scope, id));
+                case "Group" -> syncScheduler.requestGroupSync(tenant, requireId(scope, id));
+                default -> throw new ServiceException(ErrorStatuses.BAD_REQUEST,
+                        "Unknown sync scope '" + scope + "', expected All, User or Group");
+            }
+        } catch (IllegalArgumentException e) {
+            // Unknown tenant
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, e.getMessage());
+        }
+
+        ctx.setResult("Queued");
+    }
+
+    @On(event = DriftReportContext.CDS_NAME)
+    public void onDriftReport(DriftReportContext ctx) {
+        try {
+            ctx.setResult(driftReport.run(ctx.getTenant()));
+        } catch (IllegalArgumentException e) {
+            // Unknown tenant
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(ErrorStatuses.SERVER_ERROR, "Drift report interrupted");
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("[DRIFT] Drift report failed: " + cause.getMessage());
+            throw new ServiceException(ErrorStatuses.BAD_GATEWAY, "Drift report failed: " + cause.getMessage());
+        }
+    }
+
+    private static String requireId(String scope, String id) {
+        if (id == null || id.isEmpty()) {
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, "Sync scope " + scope + " requires an id");
+        }
+        return id;
+    }
+}
@@ -2,6 +2,7 @@ package customer.users_cap_java.service;
 
 import com.sap.cds.ql.Select;
 import com.sap.cds.ql.Delete;
+import com.sap.cds.ql.Update;
 import com.sap.cds.ql.cqn.CqnSelect;
 import com.sap.cds.services.persistence.PersistenceService;
 import com.sap.cds.Result;
@@ -10,10 +11,20 @@ import com.sap.cds.ql.cqn.CqnDelete;
 import com.sap.cds.services.handler.EventHandler;
 import com.sap.cds.services.handler.annotations.After;
 import com.sap.cds.services.handler.annotations.Before;
+import com.sap.cds.services.handler.annotations.On;
 import com.sap.cds.services.handler.annotations.ServiceName;
 import com.sap.cds.services.cds.CqnService;
 import com.sap.cds.services.cds.CdsDeleteEventContext;
+import com.sap.cds.services.ErrorStatuses;
+import com.sap.cds.services.EventContext;
+import com.sap.cds.services.changeset.ChangeSetListener;
+import com.sap.cds.services.ServiceException;
+import customer.users_cap_java.client.IasClientRegistry;
 import customer.users_cap_java.client.IasHttpClient;
+import customer.users_cap_java.client.IasHttpException;
+import customer.users_cap_java.client.scim.ScimGroup;
+import customer.users_cap_java.events.ChangeEvent;
+import customer.users_cap_java.events.ChangeFeed;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import cds.gen.iasreplicaservice.Users;
 import cds.gen.iasreplicaservice.Users_;
@@ -22,166 +33,299 @@ import cds.gen.iasreplicaservice.Groups_;
 import cds.gen.iasreplicaservice.GroupMembers;
 import cds.gen.iasreplicaservice.GroupMembers_;
 import cds.gen.iasreplicaservice.IasReplicaService;
+import cds.gen.iasreplicaservice.BulkDeleteResult;
+import cds.gen.iasreplicaservice.DeleteUsersContext;
+import cds.gen.iasreplicaservice.DeleteGroupsContext;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @Component
 @ServiceName("IasReplicaService")
 public class UserServiceHandler implements EventHandler {
 
-    private final IasHttpClient iasClient;
+    private final IasClientRegistry clients;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScimPayloadWriter scimWriter = new ScimPayloadWriter();
     private final IasReplicaService iasReplicaService;
-    private volatile boolean syncEnabled = true;
+
+    // The group name is immutable in IAS
+    private static final List<String> PATCHABLE_GROUP_ATTRIBUTES = List.of(Groups.DISPLAY_NAME, Groups.DESCRIPTION);
     
 
     @Autowired
-    public UserServiceHandler(IasHttpClient iasClient, IasReplicaService iasReplicaService) {
-        this.iasClient = iasClient;
+    public UserServiceHandler(IasClientRegistry clients, IasReplicaService iasReplicaService) {
+        this.clients = clients;
         this.iasReplicaService = iasReplicaService;
     }
 
     @Autowired
     private PersistenceService persistenceService;
 
-    public void setSyncEnabled(boolean enabled) {
-        this.syncEnabled = enabled;
-    }
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    private IasBulkDeleter bulkDeleter;
+
+    @Autowired
+    private EntityLockStripes lockStripes;
+
+    @Autowired
+    private IasSyncScheduler syncScheduler;
+
+    @Autowired
+    private MembershipIndex membershipIndex;
 
     // ========== USER HANDLERS ==========
     
     @Before(event = CqnService.EVENT_CREATE, entity = Users_.CDS_NAME)
-    public void onUserCreate(List<Users> users) throws Exception {
+    public void onUserCreate(EventContext ctx, List<Users> users) throws Exception {
         for (Users user : users) {
             syncUserCreateBeforeSave(user);
         }
+        markForWrite(ctx, ChangeEvent.USERS, distinct(users.stream().map(Users::getId).toList()));
     }
 
     @Before(event = CqnService.EVENT_UPDATE, entity = Users_.CDS_NAME)
-    public void onUserUpdate(List<Users> users) throws Exception {
+    public void onUserUpdate(EventContext ctx, List<Users> users) throws Exception {
+        List<String> ids = distinct(users.stream().map(Users::getId).toList());
+        markForWrite(ctx, ChangeEvent.USERS, ids);
         for (Users user : users) {
             syncUserUpdateBeforeSave(user);
         }
+        // Rows without an ID were created in IAS and only have one now
+        markForWrite(ctx, ChangeEvent.USERS, distinct(users.stream().map(Users::getId)
+                .filter(id -> !ids.contains(id)).toList()));
     }
 
     @Before(event = CqnService.EVENT_DELETE, entity = Users_.CDS_NAME)
     public void onUserDelete(CdsDeleteEventContext ctx) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        CqnDelete delete = ctx.getCqn();
-        
-        // Convert DELETE to SELECT to read the entity first
-        CqnSelect select = Select.from(delete.ref());
-        Result result = persistenceService.run(select);
-        
-        if (result.first().isPresent()) {
-            Row row = result.first().get();
-            String userId = row.get("ID").toString();
-            
-            // Delete memberships first
-            persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.user_ID().eq(userId)));
-            
-            System.out.println("Deleting user from IAS: " + userId);
-            
-            // Call IAS delete
-            iasClient.deleteUser(userId);
-            
-            System.out.println("User deleted from IAS: " + userId);
+        // Convert DELETE to SELECT to read every matched entity first
+        Map<String, List<String>> idsByTenant = selectIdsByTenant(ctx.getCqn());
+        List<String> userIds = idsByTenant.values().stream().flatMap(List::stream).toList();
+        if (userIds.isEmpty()) return;
+        markForWrite(ctx, ChangeEvent.USERS, userIds);
+        
+        System.out.println("Deleting " + userIds.size() + " user(s) from IAS");
+        
+        // Call IAS delete for all matched rows; abort the local delete if any of them failed
+        List<BulkDeleteResult> results = new ArrayList<>();
+        idsByTenant.forEach((tenant, ids) -> {
+            List<BulkDeleteResult> tenantResults = bulkDeleter.deleteAll(ids, clientFor(tenant)::deleteUser);
+            // Users already gone from IAS would stay in the rolled-back replica; re-read them once it is
+            onRollback(ctx, () -> IasBulkDeleter.succeeded(tenantResults).forEach(id -> syncScheduler.requestUserSync(tenant, id)));
+            results.addAll(tenantResults);
+        });
+        failOnIasErrors("user", results);
+        
+        // Delete memberships first, in one statement
+        persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.user_ID().in(userIds)));
+        onCommit(ctx, () -> membershipIndex.removeUsers(userIds));
+        
+        System.out.println("Users deleted from IAS: " + userIds);
+        publishOnCommit(ctx, userIds.stream().map(id -> ChangeEvent.delete(ChangeEvent.USERS, id)).toList());
+    }
+
+    @On(event = DeleteUsersContext.CDS_NAME)
+    public void onDeleteUsers(DeleteUsersContext ctx) {
+        List<String> userIds = distinct(ctx.getIds());
+        markForWrite(ctx, ChangeEvent.USERS, userIds);
+        List<BulkDeleteResult> results = new ArrayList<>();
+        Map<String, List<String>> idsByTenant = tenantsOf(Users_.CDS_NAME, userIds);
+        idsByTenant.forEach((tenant, ids) -> results.addAll(bulkDeleter.deleteAll(ids, clientFor(tenant)::deleteUser)));
+
+        // Without a replica row the tenant is unknown, so these are never sent to IAS
+        Set<String> known = new HashSet<>();
+        idsByTenant.values().forEach(known::addAll);
+        userIds.stream().filter(id -> !known.contains(id)).forEach(id -> results.add(IasBulkDeleter.notFound(id)));
+        
+        // Remove only what is gone from IAS, with set-based statements
+        List<String> deleted = IasBulkDeleter.succeeded(results);
+        if (!deleted.isEmpty()) {
+            persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.user_ID().in(deleted)));
+            persistenceService.run(Delete.from(Users_.class).where(u -> u.ID().in(deleted)));
+            onCommit(ctx, () -> membershipIndex.removeUsers(deleted));
+            publishOnCommit(ctx, deleted.stream().map(id -> ChangeEvent.delete(ChangeEvent.USERS, id)).toList());
         }
+        
+        System.out.println("Bulk user delete: " + deleted.size() + " of " + userIds.size() + " deleted");
+        ctx.setResult(results);
+    }
+
+    @After(event = { CqnService.EVENT_CREATE, CqnService.EVENT_UPDATE }, entity = Users_.CDS_NAME)
+    public void afterUserSave(EventContext ctx, List<Users> users) {
+        publishOnCommit(ctx, users.stream().map(user -> ChangeEvent.upsert(ChangeEvent.USERS, user.getId(), user)).toList());
     }
 
     // ========== GROUP HANDLERS ==========
     
     @Before(event = CqnService.EVENT_CREATE, entity = Groups_.CDS_NAME)
-    public void onGroupCreate(List<Groups> groups) throws Exception {
+    public void onGroupCreate(EventContext ctx, List<Groups> groups) throws Exception {
         for (Groups group : groups) {
             syncGroupCreateBeforeSave(group);
         }
+        markForWrite(ctx, ChangeEvent.GROUPS, distinct(groups.stream().map(Groups::getId).toList()));
     }
 
     @Before(event = CqnService.EVENT_UPDATE, entity = Groups_.CDS_NAME)
-    public void onGroupUpdate(List<Groups> groups) throws Exception {
+    public void onGroupUpdate(EventContext ctx, List<Groups> groups) throws Exception {
+        List<String> ids = distinct(groups.stream().map(Groups::getId).toList());
+        markForWrite(ctx, ChangeEvent.GROUPS, ids);
         for (Groups group : groups) {
             syncGroupUpdateBeforeSave(group);
         }
+        // Rows without an ID were created in IAS and only have one now
+        markForWrite(ctx, ChangeEvent.GROUPS, distinct(groups.stream().map(Groups::getId)
+                .filter(id -> !ids.contains(id)).toList()));
     }
 
     @Before(event = CqnService.EVENT_DELETE, entity = Groups_.CDS_NAME)
     public void onGroupDelete(CdsDeleteEventContext ctx) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        CqnDelete delete = ctx.getCqn();
-        
-        // Convert DELETE to SELECT to read the entity first
-        CqnSelect select = Select.from(delete.ref());
-        Result result = persistenceService.run(select);
-        
-        if (result.first().isPresent()) {
-            Row row = result.first().get();
-            String groupId = row.get("ID").toString();
-            
-            // Delete memberships first
-            persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.group_ID().eq(groupId)));
-            
-            System.out.println("Deleting group from IAS: " + groupId);
-            
-            // Call IAS delete
-            iasClient.deleteGroup(groupId);
-            
-            System.out.println("Group deleted from IAS: " + groupId);
+        // Convert DELETE to SELECT to read every matched entity first
+        Map<String, List<String>> idsByTenant = selectIdsByTenant(ctx.getCqn());
+        List<String> groupIds = idsByTenant.values().stream().flatMap(List::stream).toList();
+        if (groupIds.isEmpty()) return;
+        markForWrite(ctx, ChangeEvent.GROUPS, groupIds);
+        
+        System.out.println("Deleting " + groupIds.size() + " group(s) from IAS");
+        
+        // Call IAS delete for all matched rows; abort the local delete if any of them failed
+        List<BulkDeleteResult> results = new ArrayList<>();
+        idsByTenant.forEach((tenant, ids) -> {
+            List<BulkDeleteResult> tenantResults = bulkDeleter.deleteAll(ids, clientFor(tenant)::deleteGroup);
+            // Groups already gone from IAS would stay in the rolled-back replica; re-read them once it is
+            onRollback(ctx, () -> IasBulkDeleter.succeeded(tenantResults).forEach(id -> syncScheduler.requestGroupSync(tenant, id)));
+            results.addAll(tenantResults);
+        });
+        failOnIasErrors("group", results);
+        
+        // Delete memberships first, in one statement
+        persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.group_ID().in(groupIds)));
+        onCommit(ctx, () -> membershipIndex.removeGroups(groupIds));
+        
+        System.out.println("Groups deleted from IAS: " + groupIds);
+        publishOnCommit(ctx, groupIds.stream().map(id -> ChangeEvent.delete(ChangeEvent.GROUPS, id)).toList());
+    }
+
+    @On(event = DeleteGroupsContext.CDS_NAME)
+    public void onDeleteGroups(DeleteGroupsContext ctx) {
+        List<String> groupIds = distinct(ctx.getIds());
+        markForWrite(ctx, ChangeEvent.GROUPS, groupIds);
+        List<BulkDeleteResult> results = new ArrayList<>();
+        Map<String, List<String>> idsByTenant = tenantsOf(Groups_.CDS_NAME, groupIds);
+        idsByTenant.forEach((tenant, ids) -> results.addAll(bulkDeleter.deleteAll(ids, clientFor(tenant)::deleteGroup)));
+
+        // Without a replica row the tenant is unknown, so these are never sent to IAS
+        Set<String> known = new HashSet<>();
+        idsByTenant.values().forEach(known::addAll);
+        groupIds.stream().filter(id -> !known.contains(id)).forEach(id -> results.add(IasBulkDeleter.notFound(id)));
+        
+        // Remove only what is gone from IAS, with set-based statements
+        List<String> deleted = IasBulkDeleter.succeeded(results);
+        if (!deleted.isEmpty()) {
+            persistenceService.run(Delete.from(GroupMembers_.class).where(m -> m.group_ID().in(deleted)));
+            persistenceService.run(Delete.from(Groups_.class).where(g -> g.ID().in(deleted)));
+            onCommit(ctx, () -> membershipIndex.removeGroups(deleted));
+            publishOnCommit(ctx, deleted.stream().map(id -> ChangeEvent.delete(ChangeEvent.GROUPS, id)).toList());
         }
+        
+        System.out.println("Bulk group delete: " + deleted.size() + " of " + groupIds.size() + " deleted");
+        ctx.setResult(results);
+    }
+
+    @After(event = { CqnService.EVENT_CREATE, CqnService.EVENT_UPDATE }, entity = Groups_.CDS_NAME)
+    public void afterGroupSave(EventContext ctx, List<Groups> groups) {
+        publishOnCommit(ctx, groups.stream().map(group -> ChangeEvent.upsert(ChangeEvent.GROUPS, group.getId(), group)).toList());
     }
 
     // ========== MEMBERSHIP HANDLERS ==========
     
     @Before(event = CqnService.EVENT_CREATE, entity = GroupMembers_.CDS_NAME)
-    public void populateMembershipIasIds(List<GroupMembers> memberships) {
-        // No-op: IDs are already IAS IDs since Users and Groups use IAS IDs as primary keys
+    public void populateMembershipIasIds(EventContext ctx, List<GroupMembers> memberships) {
+        // IDs are already IAS IDs since Users and Groups use IAS IDs as primary keys.
+        // A membership lives in its group's tenant.
+        List<String> groupIds = distinct(memberships.stream().map(GroupMembers::getGroupId).toList());
+        Map<String, String> tenantByGroup = new LinkedHashMap<>();
+        tenantsOf(Groups_.CDS_NAME, groupIds).forEach((tenant, ids) -> ids.forEach(id -> tenantByGroup.put(id, tenant)));
+        for (GroupMembers membership : memberships) {
+            membership.setTenant(tenantByGroup.getOrDefault(membership.getGroupId(), clients.defaultTenantId()));
+        }
+        Map<String, List<String>> byGroup = userIdsByGroup(memberships);
+        markForWrite(ctx, ChangeEvent.GROUP_MEMBERS, membershipKeys(byGroup));
+        onCommit(ctx, () -> byGroup.forEach((groupId, userIds) ->
+                membershipIndex.add(tenantByGroup.getOrDefault(groupId, clients.defaultTenantId()), groupId, userIds)));
     }
 
     @After(event = CqnService.EVENT_CREATE, entity = GroupMembers_.CDS_NAME)
-    public void onMembershipCreate(List<GroupMembers> memberships) throws Exception {
-        for (GroupMembers membership : memberships) {
-            syncMembershipAdd(membership);
+    public void onMembershipCreate(EventContext ctx, List<GroupMembers> memberships) throws Exception {
+        // Group and user IDs are already IAS IDs; one PATCH per group
+        Map<String, String> tenantByGroup = new LinkedHashMap<>();
+        memberships.forEach(m -> tenantByGroup.putIfAbsent(m.getGroupId(), m.getTenant()));
+        List<ChangeEvent> events = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : userIdsByGroup(memberships).entrySet()) {
+            syncMembershipAdd(tenantByGroup.get(entry.getKey()), entry.getKey(), entry.getValue());
+            for (String userId : entry.getValue()) {
+                events.add(ChangeEvent.memberAdded(entry.getKey(), userId));
+            }
         }
+        publishOnCommit(ctx, events);
     }
 
     @Before(event = CqnService.EVENT_DELETE, entity = GroupMembers_.CDS_NAME)
     public void onMembershipDelete(CdsDeleteEventContext ctx) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
         CqnDelete delete = ctx.getCqn();
         
         // Convert DELETE to SELECT to read the entity first
         CqnSelect select = Select.from(delete.ref());
         Result result = persistenceService.run(select);
         
+        Map<String, List<String>> byGroup = new LinkedHashMap<>();
+        Map<String, String> tenantByGroup = new LinkedHashMap<>();
         for (Row row : result) {
             String groupId = row.get("group_ID") != null ? row.get("group_ID").toString() : null;
             String userId = row.get("user_ID") != null ? row.get("user_ID").toString() : null;
             
             if (groupId != null && userId != null) {
-                System.out.println("Removing user " + userId + " from group " + groupId + " in IAS");
-                
-                // Call IAS to remove member from group
-                syncMembershipRemove(groupId, userId);
-                
-                System.out.println("User " + userId + " removed from group " + groupId + " in IAS");
+                byGroup.computeIfAbsent(groupId, k -> new ArrayList<>()).add(userId);
+                tenantByGroup.putIfAbsent(groupId, row.get("tenant") != null ? row.get("tenant").toString() : null);
             }
         }
+        markForWrite(ctx, ChangeEvent.GROUP_MEMBERS, membershipKeys(byGroup));
+        onCommit(ctx, () -> byGroup.forEach(membershipIndex::remove));
+
+        List<ChangeEvent> events = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : byGroup.entrySet()) {
+            System.out.println("Removing " + entry.getValue().size() + " user(s) from group " + entry.getKey() + " in IAS");
+            
+            // Call IAS to remove members from group, one PATCH per group
+            syncMembershipRemove(tenantByGroup.get(entry.getKey()), entry.getKey(), entry.getValue());
+            
+            System.out.println("Users " + entry.getValue() + " removed from group " + entry.getKey() + " in IAS");
+            for (String userId : entry.getValue()) {
+                events.add(ChangeEvent.memberRemoved(entry.getKey(), userId));
+            }
+        }
+        publishOnCommit(ctx, events);
     }
 
     // ========== SYNC HELPERS ==========
     
     private void syncUserCreateBeforeSave(Users user) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        String scimJson = userToScimJson(user);
-        String response = iasClient.createUser(scimJson);
+        if (user.getTenant() == null) {
+            user.setTenant(clients.defaultTenantId());
+        }
+        byte[] scimJson = userToScimJson(user);
+        String response = clientFor(user.getTenant()).createUser(scimJson);
         
         // Parse response and set IAS ID as the entity's ID
         Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
@@ -189,13 +333,12 @@ public class UserServiceHandler implements EventHandler {
         
         if (iasUserId != null) {
             user.setId(iasUserId);  // Set IAS ID as the entity ID
+            user.setVersion(metaVersion(responseMap));
             System.out.println("IAS User created with ID: " + iasUserId);
         }
     }
 
     private void syncUserUpdateBeforeSave(Users user) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
         String iasUserId = user.getId();  // ID is already the IAS ID
         if (iasUserId == null || iasUserId.isEmpty()) {
             // If no ID, treat as create
@@ -203,19 +346,43 @@ public class UserServiceHandler implements EventHandler {
             return;
         }
         
-        String scimJson = userToScimJson(user);
-        String response = iasClient.updateUser(iasUserId, scimJson);
+        Users current = persistenceService.run(Select.from(Users_.class).byId(iasUserId))
+                .first(Users.class).orElse(null);
+        if (current == null) {
+            // Not in the replica yet: full replace, nothing to compare against
+            clientFor(user.getTenant()).updateUser(iasUserId, userToScimJson(user));
+            System.out.println("IAS User updated: " + iasUserId);
+            return;
+        }
         
-        // Parse response (IAS may return updated data)
-        Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
-        System.out.println("IAS User updated: " + iasUserId);
+        // Send only what differs from the replica, guarded by the version it was synced at
+        Set<String> changed = changedAttributes(user, current, ScimResourceMapper.USER_ATTRIBUTES);
+        if (changed.isEmpty()) {
+            System.out.println("IAS User unchanged: " + iasUserId);
+            return;
+        }
+        Users merged = Users.create();
+        merged.putAll(current);
+        merged.putAll(user);
+        
+        try {
+            String version = clientFor(current.getTenant())
+                    .patchUser(iasUserId, scimWriter.writeUserPatch(changed, merged), current.getVersion());
+            user.setVersion(version);
+        } catch (IasHttpException e) {
+            if (!e.isPreconditionFailed()) throw e;
+            throw new ServiceException(ErrorStatuses.CONFLICT,
+                    "User " + iasUserId + " was changed in IAS since it was last synced; reload it and try again");
+        }
+        System.out.println("IAS User patched: " + iasUserId + " " + changed);
     }
 
     private void syncGroupCreateBeforeSave(Groups group) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        String scimJson = groupToScimJson(group);
-        String response = iasClient.createGroup(scimJson);
+        if (group.getTenant() == null) {
+            group.setTenant(clients.defaultTenantId());
+        }
+        byte[] scimJson = groupToScimJson(group);
+        String response = clientFor(group.getTenant()).createGroup(scimJson);
         
         // Parse response and set IAS ID as the entity's ID
         Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
@@ -223,13 +390,12 @@ public class UserServiceHandler implements EventHandler {
         
         if (iasGroupId != null) {
             group.setId(iasGroupId);  // Set IAS ID as the entity ID
+            group.setVersion(metaVersion(responseMap));
             System.out.println("IAS Group created with ID: " + iasGroupId);
         }
     }
 
     private void syncGroupUpdateBeforeSave(Groups group) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
         String iasGroupId = group.getId();  // ID is already the IAS ID
         if (iasGroupId == null || iasGroupId.isEmpty()) {
             // If no ID, treat as create
@@ -237,150 +403,236 @@ public class UserServiceHandler implements EventHandler {
             return;
         }
         
-        String scimJson = groupToScimJson(group);
-        String response = iasClient.updateGroup(iasGroupId, scimJson);
+        Groups current = persistenceService.run(Select.from(Groups_.class).byId(iasGroupId))
+                .first(Groups.class).orElse(null);
+        if (current == null) {
+            // Not in the replica yet: full replace, nothing to compare against
+            clientFor(group.getTenant()).updateGroup(iasGroupId, groupToScimJson(group));
+            System.out.println("IAS Group updated: " + iasGroupId);
+            return;
+        }
         
-        // Parse response (IAS may return updated data)
-        Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
-        System.out.println("IAS Group updated: " + iasGroupId);
+        // Send only what differs from the replica, guarded by the version it was synced at
+        Set<String> changed = changedAttributes(group, current, PATCHABLE_GROUP_ATTRIBUTES);
+        if (changed.isEmpty()) {
+            System.out.println("IAS Group unchanged: " + iasGroupId);
+            return;
+        }
+        Groups merged = Groups.create();
+        merged.putAll(current);
+        merged.putAll(group);
+        
+        try {
+            String version = clientFor(current.getTenant())
+                    .patchGroup(iasGroupId, scimWriter.writeGroupPatch(changed, merged), current.getVersion());
+            group.setVersion(version);
+        } catch (IasHttpException e) {
+            if (!e.isPreconditionFailed()) throw e;
+            throw new ServiceException(ErrorStatuses.CONFLICT,
+                    "Group " + iasGroupId + " was changed in IAS since it was last synced; reload it and try again");
+        }
+        System.out.println("IAS Group patched: " + iasGroupId + " " + changed);
     }
 
-    private void syncMembershipAdd(GroupMembers membership) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        String iasGroupId = membership.getGroupId();  // Group ID is already IAS ID
-        String iasUserId = membership.getUserId();    // User ID is already IAS ID
-        
-        if (iasGroupId == null || iasUserId == null) {
+    private void syncMembershipAdd(String tenant, String iasGroupId, List<String> iasUserIds) throws Exception {
+        if (iasGroupId == null || iasUserIds.isEmpty()) {
             return;
         }
         
-        String patchJson = buildAddMemberPatch(iasUserId);
-        iasClient.patchGroup(iasGroupId, patchJson);
+        byte[] patchJson = buildAddMemberPatch(iasUserIds);
+        String version = clientFor(tenant).patchGroup(iasGroupId, patchJson, null);
+        adoptGroupVersion(tenant, iasGroupId, version);
     }
 
-    private void syncMembershipRemove(String iasGroupId, String iasUserId) throws Exception {
-        if (!syncEnabled) return; // Skip during scheduled sync
-        
-        if (iasGroupId == null || iasUserId == null) {
+    private void syncMembershipRemove(String tenant, String iasGroupId, List<String> iasUserIds) throws Exception {
+        if (iasGroupId == null || iasUserIds.isEmpty()) {
             return;
         }
         
-        String patchJson = buildRemoveMemberPatch(iasUserId);
-        iasClient.patchGroup(iasGroupId, patchJson);
+        byte[] patchJson = buildRemoveMemberPatch(iasUserIds);
+        String version = clientFor(tenant).patchGroup(iasGroupId, patchJson, null);
+        adoptGroupVersion(tenant, iasGroupId, version);
     }
 
-    // ========== SCIM MAPPERS ==========
-    
-    private String userToScimJson(Users user) throws Exception {
-        Map<String, Object> scimUser = new HashMap<>();
-        
-        java.util.List<String> schemas = new java.util.ArrayList<>(java.util.Arrays.asList(
-            "urn:ietf:params:scim:schemas:core:2.0:User",
-            "urn:ietf:params:scim:schemas:extension:sap:2.0:User"
-        ));
-        if (user.getCompany() != null && !user.getCompany().isEmpty()) {
-            schemas.add("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User");
-        }
-        scimUser.put("schemas", schemas);
-        
-        scimUser.put("userName", user.getLoginName() != null ? user.getLoginName() : user.getEmail());
-        
-        Map<String, Object> name = new HashMap<>();
-        name.put("givenName", user.getFirstName() != null ? user.getFirstName() : "");
-        name.put("familyName", user.getLastName());
-        scimUser.put("name", name);
-        
-        Map<String, Object> email = new HashMap<>();
-        email.put("value", user.getEmail());
-        email.put("primary", true);
-        scimUser.put("emails", java.util.Arrays.asList(email));
-        
-        scimUser.put("active", "Active".equals(user.getStatus()));
-        scimUser.put("userType", user.getUserType() != null ? user.getUserType() : "public");
-        
-        Map<String, Object> sapExtension = new HashMap<>();
-        sapExtension.put("userId", user.getLoginName() != null ? user.getLoginName() : user.getEmail());
-        if (user.getValidFrom() != null) {
-            sapExtension.put("validFrom", user.getValidFrom().toString());
+    /**
+     * A member PATCH bumps the group's version in IAS. Keeping the new one lets the next attribute
+     * PATCH still be guarded by If-Match; if IAS sent no ETag, it is read back from the group.
+     */
+    private void adoptGroupVersion(String tenant, String iasGroupId, String version) throws Exception {
+        if (version == null) {
+            ScimGroup resource = clientFor(tenant).getGroupResource(iasGroupId, null);
+            version = resource != null ? ScimResourceMapper.version(resource.getMeta()) : null;
         }
-        if (user.getValidTo() != null) {
-            sapExtension.put("validTo", user.getValidTo().toString());
+        persistenceService.run(Update.entity(Groups_.class)
+                .data(Groups.VERSION, version)
+                .where(g -> g.ID().eq(iasGroupId)));
+    }
+
+    /**
+     * Marks the rows this change set writes, so the sync neither overwrites nor sweeps them
+     * while it runs. Stripes are held only while marking, never across IAS calls or until the
+     * change set closes. The rows are marked again on commit, so a sync that fetched them
+     * meanwhile discards its copy; a rolled-back write is left for the sync to apply again.
+     */
+    private void markForWrite(EventContext ctx, String entity, List<String> ids) {
+        if (ids.isEmpty()) return;
+
+        try {
+            lockStripes.lockAndMarkWritten(entity, ids);
+        } catch (IllegalStateException e) {
+            throw new ServiceException(ErrorStatuses.CONFLICT, e.getMessage());
         }
-        scimUser.put("urn:ietf:params:scim:schemas:extension:sap:2.0:User", sapExtension);
-        
-        if (user.getCompany() != null && !user.getCompany().isEmpty()) {
-            Map<String, Object> entExtension = new HashMap<>();
-            entExtension.put("organization", user.getCompany());
-            scimUser.put("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User", entExtension);
+        onCommit(ctx, () -> {
+            try {
+                lockStripes.lockAndMarkWritten(entity, ids);
+            } catch (IllegalStateException e) {
+                // Already committed: record the write even if a sync still holds a stripe
+                lockStripes.markWritten(entity, ids);
+            }
+        });
+    }
+
+    /**
+     * Sends change events once the change set is committed, so consoles never see a rolled-back write.
+     */
+    private void publishOnCommit(EventContext ctx, List<ChangeEvent> events) {
+        if (!events.isEmpty()) {
+            onCommit(ctx, () -> changeFeed.publishAll(events));
         }
-        
-        if ((user.getCountry() != null && !user.getCountry().isEmpty()) || (user.getCity() != null && !user.getCity().isEmpty())) {
-            Map<String, Object> addr = new HashMap<>();
-            addr.put("type", "home");
-            addr.put("primary", false);
-            if (user.getCountry() != null && !user.getCountry().isEmpty()) {
-                addr.put("country", user.getCountry());
+    }
+
+    /**
+     * Runs once the change set is committed; used to keep in-memory state in line with the replica.
+     */
+    private static void onCommit(EventContext ctx, Runnable action) {
+        ctx.getChangeSetContext().register(new ChangeSetListener() {
+            @Override
+            public void afterClose(boolean completed) {
+                if (completed) action.run();
             }
-            if (user.getCity() != null && !user.getCity().isEmpty()) {
-                addr.put("locality", user.getCity());
+        });
+    }
+
+    /**
+     * Runs once the change set is rolled back; used to repair what IAS already applied.
+     */
+    private static void onRollback(EventContext ctx, Runnable action) {
+        ctx.getChangeSetContext().register(new ChangeSetListener() {
+            @Override
+            public void afterClose(boolean completed) {
+                if (!completed) action.run();
+            }
+        });
+    }
+
+    // ========== SCIM MAPPERS ==========
+    
+    private byte[] userToScimJson(Users user) throws Exception {
+        return scimWriter.writeUser(user);
+    }
+
+    private byte[] groupToScimJson(Groups group) throws Exception {
+        return scimWriter.writeGroup(group);
+    }
+
+    // ========== UTILITY METHODS ==========
+    
+    private byte[] buildAddMemberPatch(Collection<String> iasUserIds) throws Exception {
+        return scimWriter.writeAddMembersPatch(iasUserIds);
+    }
+
+    private byte[] buildRemoveMemberPatch(Collection<String> iasUserIds) throws Exception {
+        return scimWriter.writeRemoveMembersPatch(iasUserIds);
+    }
+
+    /**
+     * Groups memberships by IAS group ID so each group gets a single PATCH.
+     */
+    private static Map<String, List<String>> userIdsByGroup(List<GroupMembers> memberships) {
+        Map<String, List<String>> byGroup = new LinkedHashMap<>();
+        for (GroupMembers membership : memberships) {
+            if (membership.getGroupId() == null || membership.getUserId() == null) {
+                continue;
             }
-            scimUser.put("addresses", java.util.Arrays.asList(addr));
+            byGroup.computeIfAbsent(membership.getGroupId(), k -> new ArrayList<>()).add(membership.getUserId());
         }
-        
-        return objectMapper.writeValueAsString(scimUser);
+        return byGroup;
     }
 
-    private String groupToScimJson(Groups group) throws Exception {
-        Map<String, Object> scimGroup = new HashMap<>();
-        scimGroup.put("schemas", java.util.Arrays.asList(
-            "urn:ietf:params:scim:schemas:core:2.0:Group",
-            "urn:sap:cloud:scim:schemas:extension:custom:2.0:Group"
-        ));
-        scimGroup.put("displayName", group.getDisplayName());
-        
-        // Put description in the SAP custom extension namespace
-        if (group.getDescription() != null) {
-            Map<String, Object> customExtension = new HashMap<>();
-            customExtension.put("description", group.getDescription());
-            scimGroup.put("urn:sap:cloud:scim:schemas:extension:custom:2.0:Group", customExtension);
+    private static List<String> membershipKeys(Map<String, List<String>> userIdsByGroup) {
+        List<String> keys = new ArrayList<>();
+        userIdsByGroup.forEach((groupId, userIds) -> userIds.forEach(userId -> keys.add(groupId + ":" + userId)));
+        return keys;
+    }
+
+    private Map<String, List<String>> selectIdsByTenant(CqnDelete delete) {
+        Select<?> select = Select.from(delete.ref()).columns("ID", "tenant");
+        delete.where().ifPresent(select::where);
+        return idsByTenant(persistenceService.run(select));
+    }
+
+    /**
+     * Tenant of each given ID; IDs without a replica row are left out.
+     */
+    private Map<String, List<String>> tenantsOf(String entity, List<String> ids) {
+        if (ids.isEmpty()) return Map.of();
+        Select<?> select = Select.from(entity).columns("ID", "tenant").where(e -> e.get("ID").in(ids));
+        return idsByTenant(persistenceService.run(select));
+    }
+
+    private Map<String, List<String>> idsByTenant(Result rows) {
+        Map<String, List<String>> byTenant = new LinkedHashMap<>();
+        for (Row row : rows) {
+            String id = row.get("ID").toString();
+            String tenant = row.get("tenant") != null ? row.get("tenant").toString() : clients.defaultTenantId();
+            byTenant.computeIfAbsent(tenant, k -> new ArrayList<>()).add(id);
         }
-        
-        // For updates, include the ID if it exists
-        if (group.getId() != null) {
-            scimGroup.put("id", group.getId());
+        return byTenant;
+    }
+
+    private IasHttpClient clientFor(String tenant) {
+        try {
+            return clients.forTenant(tenant);
+        } catch (IllegalArgumentException e) {
+            throw new ServiceException(ErrorStatuses.BAD_REQUEST, e.getMessage());
         }
-        
-        return objectMapper.writeValueAsString(scimGroup);
     }
 
-    // ========== UTILITY METHODS ==========
-    
-    private String buildAddMemberPatch(String iasUserId) throws Exception {
-        Map<String, Object> patchOp = new HashMap<>();
-        patchOp.put("schemas", java.util.Arrays.asList("urn:ietf:params:scim:api:messages:2.0:PatchOp"));
-        
-        Map<String, Object> operation = new HashMap<>();
-        operation.put("op", "add");
-        operation.put("path", "members");
-        
-        Map<String, Object> memberValue = new HashMap<>();
-        memberValue.put("value", iasUserId);
-        operation.put("value", java.util.Arrays.asList(memberValue));
-        
-        patchOp.put("Operations", java.util.Arrays.asList(operation));
-        return objectMapper.writeValueAsString(patchOp);
+    /**
+     * Attributes present in {@code update} whose value differs from {@code current}; null and "" count as equal.
+     */
+    private static Set<String> changedAttributes(Map<String, Object> update, Map<String, Object> current, List<String> attributes) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (String attribute : attributes) {
+            if (update.containsKey(attribute) && !Objects.equals(blankToNull(update.get(attribute)), blankToNull(current.get(attribute)))) {
+                changed.add(attribute);
+            }
+        }
+        return changed;
     }
 
-    private String buildRemoveMemberPatch(String iasUserId) throws Exception {
-        Map<String, Object> patchOp = new HashMap<>();
-        patchOp.put("schemas", java.util.Arrays.asList("urn:ietf:params:scim:api:messages:2.0:PatchOp"));
-        
-        Map<String, Object> operation = new HashMap<>();
-        operation.put("op", "remove");
-        operation.put("path", "members[value eq \"" + iasUserId + "\"]");
-        
-        patchOp.put("Operations", java.util.Arrays.asList(operation));
-        return objectMapper.writeValueAsString(patchOp);
+    private static Object blankToNull(Object value) {
+        return value instanceof String text && text.isEmpty() ? null : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String metaVersion(Map<String, Object> resource) {
+        Object meta = resource.get("meta");
+        return meta instanceof Map ? (String) ((Map<String, Object>) meta).get("version") : null;
+    }
+
+    private static List<String> distinct(Collection<String> ids) {
+        return ids == null ? List.of() : ids.stream().filter(Objects::nonNull).distinct().toList();
+    }
+
+    private static void failOnIasErrors(String kind, List<BulkDeleteResult> results) {
+        List<BulkDeleteResult> failed = IasBulkDeleter.failed(results);
+        if (failed.isEmpty()) return;
+
+        StringBuilder message = new StringBuilder("Failed to delete " + failed.size() + " of " + results.size() + " " + kind + "(s) in IAS:");
+        for (BulkDeleteResult result : failed) {
+            message.append(' ').append(result.getId()).append(" (").append(result.getMessage()).append(')');
+        }
+        throw new ServiceException(ErrorStatuses.BAD_GATEWAY, message.toString());
     }
 }
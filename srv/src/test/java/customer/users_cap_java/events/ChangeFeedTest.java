@@ -0,0 +1,180 @@
+package customer.users_cap_java.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Resume points and resets of the change feed, observed through the SSE frames a
+ * subscriber receives.
+ */
+class ChangeFeedTest {
+
+    private static final int CAPACITY = 4096;
+
+    private final ChangeFeed feed = new ChangeFeed();
+
+    @AfterEach
+    void shutdown() {
+        feed.shutdown();
+    }
+
+    // ========== RESUMING ==========
+
+    @Test
+    void resumesAfterABufferedEventId() throws Exception {
+        String epoch = epoch();
+        feed.publish(change("u2"));
+
+        RecordingEmitter resumed = subscribe(epoch + "-0");
+        assertEquals(epoch + "-1", resumed.next().id());
+        assertEquals(epoch + "-2", resumed.next().id());
+    }
+
+    @Test
+    void resetsAnIdFromAnotherServerStart() throws Exception {
+        epoch();
+
+        assertReset(subscribe("0000-1"));
+    }
+
+    @Test
+    void resetsAnIdAheadOfTheServer() throws Exception {
+        String epoch = epoch();
+
+        assertReset(subscribe(epoch + "-99"));
+    }
+
+    @Test
+    void resetsAMalformedId() throws Exception {
+        String epoch = epoch();
+
+        assertReset(subscribe(epoch + "-x"));
+        assertReset(subscribe(epoch + "--1"));
+    }
+
+    // ========== OVERRUN ==========
+
+    @Test
+    void resetsAnIdOlderThanTheBuffer() throws Exception {
+        String epoch = epoch();
+        for (int i = 0; i < CAPACITY; i++) {
+            feed.publish(change("u" + i));
+        }
+
+        // Event 1 is the oldest still buffered, event 0 would be the overwritten one before it
+        assertEquals("change", subscribe(epoch + "-1").next().event());
+        assertReset(subscribe(epoch + "-0"));
+    }
+
+    @Test
+    void resetsASubscriberThatFallsAFullBufferBehind() throws Exception {
+        RecordingEmitter slow = new RecordingEmitter();
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        slow.blockFirstSend(sending, proceed);
+        feed.subscribe(slow, null);
+
+        feed.publish(change("u0"));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= CAPACITY + 1; i++) {
+            feed.publish(change("u" + i));
+        }
+        proceed.countDown();
+
+        assertEquals("change", slow.next().event());
+        assertReset(slow);
+    }
+
+    // ========== HELPERS ==========
+
+    private record Frame(String id, String event) {
+    }
+
+    /**
+     * Collects the frames sent to a subscriber, skipping heartbeats.
+     */
+    private static final class RecordingEmitter extends ResponseBodyEmitter {
+
+        private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private CountDownLatch sending;
+        private CountDownLatch proceed;
+
+        void blockFirstSend(CountDownLatch sending, CountDownLatch proceed) {
+            this.sending = sending;
+            this.proceed = proceed;
+        }
+
+        @Override
+        public void send(Object object, MediaType mediaType) {
+            if (sending != null && sending.getCount() > 0) {
+                sending.countDown();
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String text = new String((byte[]) object, StandardCharsets.UTF_8);
+            if (text.startsWith(":")) return;
+            frames.add(new Frame(field(text, "id"), field(text, "event")));
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+
+        Frame next() throws InterruptedException {
+            Frame frame = frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame, "no frame within 5 s");
+            return frame;
+        }
+
+        private static String field(String frame, String name) {
+            for (String line : frame.split("\n")) {
+                if (line.startsWith(name + ": ")) return line.substring(name.length() + 2);
+            }
+            return null;
+        }
+    }
+
+    private RecordingEmitter subscribe(String lastEventId) {
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(emitter, lastEventId);
+        return emitter;
+    }
+
+    /**
+     * Publishes one event to a live subscriber and reads this server's epoch from its id.
+     */
+    private String epoch() throws Exception {
+        RecordingEmitter live = subscribe(null);
+        feed.publish(change("u1"));
+        String id = live.next().id();
+        assertTrue(id.endsWith("-1"), id);
+        return id.substring(0, id.length() - 2);
+    }
+
+    private static void assertReset(RecordingEmitter emitter) throws Exception {
+        assertEquals("reset", emitter.next().event());
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS), "reset subscriber was not completed");
+    }
+
+    private static ChangeEvent change(String userId) {
+        return ChangeEvent.upsert(ChangeEvent.USERS, userId, Map.of("ID", userId));
+    }
+}
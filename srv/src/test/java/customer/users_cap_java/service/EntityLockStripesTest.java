@@ -0,0 +1,144 @@
+package customer.users_cap_java.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stripe locking across threads, and the write marks the sync checks against.
+ */
+class EntityLockStripesTest {
+
+    private static final String USERS = "Users";
+
+    private final EntityLockStripes stripes = new EntityLockStripes(TimeUnit.MILLISECONDS.toNanos(300));
+
+    // ========== LOCKING ==========
+
+    @Test
+    void tryLockReturnsNullWhileAnotherThreadHoldsTheRow() throws Exception {
+        try (EntityLockStripes.Held held = stripes.lockAll(USERS, List.of("u1"))) {
+            assertNull(onOtherThread(() -> stripes.tryLock(USERS, "u1")));
+        }
+        EntityLockStripes.Held held = onOtherThread(() -> stripes.tryLock(USERS, "u1"));
+        assertNotNull(held);
+    }
+
+    @Test
+    void lockAllRetriesUntilTheStripeIsReleased() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        AtomicBoolean releasing = new AtomicBoolean();
+        CompletableFuture.runAsync(() -> {
+            try (EntityLockStripes.Held held = stripes.lockAll(USERS, List.of("u1"))) {
+                locked.countDown();
+                Thread.sleep(50);
+                releasing.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        try (EntityLockStripes.Held held = stripes.lockAll(USERS, List.of("u1", "u2"))) {
+            assertTrue(releasing.get(), "lockAll returned while the other thread still held the stripe");
+        }
+    }
+
+    @Test
+    void lockAllTimesOutAndReleasesWhatItHeld() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            try (EntityLockStripes.Held held = stripes.lockAll(USERS, List.of("u1"))) {
+                locked.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        try {
+            assertThrows(IllegalStateException.class, () -> stripes.lockAll(USERS, List.of("u2", "u1")));
+            // Nothing stays held after the failure, so another thread gets u2 right away
+            EntityLockStripes.Held other = onOtherThread(() -> stripes.tryLock(USERS, "u2"));
+            assertNotNull(other);
+        } finally {
+            release.countDown();
+            holder.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void tryLockUnwrittenSkipsRowsWrittenSinceTheFetch() throws Exception {
+        long fetched = stripes.now();
+        stripes.lockAndMarkWritten(USERS, List.of("u1"));
+
+        assertNull(onOtherThread(() -> stripes.tryLockUnwritten(USERS, "u1", fetched)));
+        EntityLockStripes.Held held = onOtherThread(() -> stripes.tryLockUnwritten(USERS, "u1", stripes.now()));
+        assertNotNull(held);
+    }
+
+    // ========== WRITE TRACKING ==========
+
+    @Test
+    void writtenSinceComparesWithTheFetchClock() {
+        long before = stripes.now();
+        stripes.markWritten(USERS, List.of("u1"));
+        long after = stripes.now();
+
+        assertTrue(stripes.writtenSince(USERS, "u1", before));
+        assertFalse(stripes.writtenSince(USERS, "u1", after));
+        assertFalse(stripes.writtenSince(USERS, "u2", before));
+        assertFalse(stripes.writtenSince("Groups", "u1", before));
+    }
+
+    @Test
+    void endReadKeepsWritesARunningReadMayStillCheck() {
+        long first = stripes.beginRead();
+        stripes.markWritten(USERS, List.of("u1"));
+        long second = stripes.beginRead();
+
+        stripes.endRead(second);
+        assertTrue(stripes.writtenSince(USERS, "u1", first));
+    }
+
+    @Test
+    void endReadForgetsWritesOlderThanEveryRunningRead() {
+        long first = stripes.beginRead();
+        stripes.markWritten(USERS, List.of("u1"));
+        stripes.beginRead();
+
+        stripes.endRead(first);
+        assertFalse(stripes.writtenSince(USERS, "u1", first));
+    }
+
+    // ========== HELPERS ==========
+
+    @FunctionalInterface
+    private interface Attempt {
+        EntityLockStripes.Held run();
+    }
+
+    /**
+     * Runs the attempt on another thread, since stripes are reentrant for their owner.
+     * Whatever it locked is released before returning.
+     */
+    private static EntityLockStripes.Held onOtherThread(Attempt attempt) throws Exception {
+        return CompletableFuture.supplyAsync(() -> {
+            EntityLockStripes.Held held = attempt.run();
+            if (held != null) held.close();
+            return held;
+        }).get(5, TimeUnit.SECONDS);
+    }
+}
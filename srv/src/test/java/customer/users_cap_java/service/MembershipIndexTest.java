@@ -0,0 +1,139 @@
+package customer.users_cap_java.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sap.cds.Result;
+import com.sap.cds.services.persistence.PersistenceService;
+
+import cds.gen.iasreplicaservice.GroupMembers;
+
+/**
+ * Index updates and counts on top of a GroupMembers table served by a stubbed
+ * {@link PersistenceService}: every query returns whatever {@link #table} holds.
+ */
+class MembershipIndexTest {
+
+    private final List<GroupMembers> table = new ArrayList<>();
+    private final MembershipIndex index = new MembershipIndex();
+
+    @BeforeEach
+    void stubTable() {
+        Result result = mock(Result.class, invocation -> invocation.getMethod().getName().equals("listOf")
+                ? new ArrayList<>(table)
+                : Answers.RETURNS_DEFAULTS.answer(invocation));
+        PersistenceService db = mock(PersistenceService.class, invocation -> invocation.getMethod().getName().equals("run")
+                ? result
+                : Answers.RETURNS_DEFAULTS.answer(invocation));
+        ReflectionTestUtils.setField(index, "db", db);
+    }
+
+    // ========== LOADING ==========
+
+    @Test
+    void firstLookupLoadsTheTable() {
+        table.addAll(List.of(member("t1", "g1", "u1"), member("t1", "g1", "u2"), member("t1", "g2", "u1")));
+
+        assertEquals(List.of("u1", "u2"), index.membersOf("g1"));
+        assertEquals(List.of("g1", "g2"), index.groupsOf("u1"));
+        assertEquals(List.of(), index.groupsOf("unknown"));
+    }
+
+    @Test
+    void reloadGroupReplacesItsMembershipsWithTheTable() {
+        table.addAll(List.of(member("t1", "g1", "u1"), member("t1", "g1", "u2")));
+        index.membersOf("g1");
+
+        index.add("t1", "g1", List.of("u3"));
+        table.clear();
+        table.add(member("t1", "g1", "u2"));
+        index.reloadGroup("g1");
+
+        assertEquals(List.of("u2"), index.membersOf("g1"));
+        assertEquals(List.of(), index.groupsOf("u1"));
+        assertEquals(List.of(), index.groupsOf("u3"));
+    }
+
+    // ========== UPDATES ==========
+
+    @Test
+    void addAndRemoveUpdateBothDirections() {
+        index.membersOf("g1");
+
+        index.add("t1", "g1", List.of("u1", "u2"));
+        index.add("t1", "g1", List.of("u2"));
+        assertEquals(List.of("u1", "u2"), index.membersOf("g1"));
+
+        index.remove("g1", List.of("u1", "unknown"));
+        assertEquals(List.of("u2"), index.membersOf("g1"));
+        assertEquals(List.of(), index.groupsOf("u1"));
+        assertEquals(List.of("g1"), index.groupsOf("u2"));
+    }
+
+    @Test
+    void removeUsersDropsTheirMembershipsFromEveryGroup() {
+        table.addAll(List.of(member("t1", "g1", "u1"), member("t1", "g1", "u2"), member("t1", "g2", "u1")));
+        index.membersOf("g1");
+
+        index.removeUsers(List.of("u1"));
+
+        assertEquals(List.of("u2"), index.membersOf("g1"));
+        assertEquals(List.of(), index.membersOf("g2"));
+        assertEquals(List.of(), index.groupsOf("u1"));
+    }
+
+    @Test
+    void removeGroupsDropsTheirMembershipsFromEveryUser() {
+        table.addAll(List.of(member("t1", "g1", "u1"), member("t1", "g2", "u1")));
+        index.membersOf("g1");
+
+        index.removeGroups(List.of("g1"));
+
+        assertEquals(List.of("g2"), index.groupsOf("u1"));
+        assertEquals(List.of(), index.membersOf("g1"));
+    }
+
+    // ========== COUNTS ==========
+
+    @Test
+    void countsOnlyIncludeTheTenantsGroups() {
+        table.addAll(List.of(
+                member("t1", "g1", "u1"), member("t1", "g1", "u2"), member("t1", "g2", "u1"),
+                member("t2", "g3", "u1"), member("t2", "g3", "u3")));
+
+        assertEquals(Map.of("g1", 2, "g2", 1), index.memberCounts("t1"));
+        assertEquals(Map.of("g3", 2), index.memberCounts("t2"));
+        assertEquals(Map.of("u1", 2, "u2", 1), index.groupCounts("t1"));
+        assertEquals(Map.of("u1", 1, "u3", 1), index.groupCounts("t2"));
+    }
+
+    @Test
+    void countsSkipEmptiedGroupsAndUsers() {
+        table.addAll(List.of(member("t1", "g1", "u1"), member("t1", "g2", "u2")));
+        index.memberCounts("t1");
+
+        index.remove("g2", List.of("u2"));
+
+        assertEquals(Map.of("g1", 1), index.memberCounts("t1"));
+        assertEquals(Map.of("u1", 1), index.groupCounts("t1"));
+    }
+
+    // ========== FIXTURES ==========
+
+    private static GroupMembers member(String tenant, String groupId, String userId) {
+        GroupMembers member = GroupMembers.create();
+        member.setTenant(tenant);
+        member.setGroupId(groupId);
+        member.setUserId(userId);
+        return member;
+    }
+}
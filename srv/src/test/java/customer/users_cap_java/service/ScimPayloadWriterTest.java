@@ -0,0 +1,251 @@
+package customer.users_cap_java.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cds.gen.iasreplicaservice.Groups;
+import cds.gen.iasreplicaservice.Users;
+
+/**
+ * Compares {@link ScimPayloadWriter} with the ObjectMapper-over-HashMap payloads it replaced:
+ * same JSON, fewer bytes allocated per payload.
+ */
+class ScimPayloadWriterTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScimPayloadWriter writer = new ScimPayloadWriter();
+
+    // ========== EQUIVALENCE ==========
+
+    @Test
+    void userPayloadMatchesPreviousOutput() throws Exception {
+        for (Users user : List.of(fullUser(), minimalUser())) {
+            assertEquals(objectMapper.readTree(legacyUser(user)), objectMapper.readTree(writer.writeUser(user)));
+        }
+    }
+
+    @Test
+    void groupPayloadMatchesPreviousOutput() throws Exception {
+        Groups withoutDescription = group();
+        withoutDescription.setDescription(null);
+        withoutDescription.setId(null);
+        for (Groups group : List.of(group(), withoutDescription)) {
+            assertEquals(objectMapper.readTree(legacyGroup(group)), objectMapper.readTree(writer.writeGroup(group)));
+        }
+    }
+
+    @Test
+    void memberPatchesMatchPreviousOutput() throws Exception {
+        String userId = "4a1b8f0e-93c2-4d3e-8f61-0c2a7b5d9e11";
+        assertEquals(objectMapper.readTree(legacyAddMember(userId)),
+                objectMapper.readTree(writer.writeAddMembersPatch(List.of(userId))));
+        assertEquals(objectMapper.readTree(legacyRemoveMember(userId)),
+                objectMapper.readTree(writer.writeRemoveMembersPatch(List.of(userId))));
+    }
+
+    // ========== ALLOCATION ==========
+
+    @Test
+    void userPayloadAllocatesLessThanPreviousOutput() throws Exception {
+        Users user = fullUser();
+        long legacy = bytesPerCall(() -> legacyUser(user).getBytes(StandardCharsets.UTF_8));
+        long streamed = bytesPerCall(() -> writer.writeUser(user));
+
+        assertTrue(streamed < legacy, "User payload: " + legacy + " B/op before, " + streamed + " B/op now");
+    }
+
+    @Test
+    void groupPayloadAllocatesLessThanPreviousOutput() throws Exception {
+        Groups group = group();
+        long legacy = bytesPerCall(() -> legacyGroup(group).getBytes(StandardCharsets.UTF_8));
+        long streamed = bytesPerCall(() -> writer.writeGroup(group));
+
+        assertTrue(streamed < legacy, "Group payload: " + legacy + " B/op before, " + streamed + " B/op now");
+    }
+
+    @FunctionalInterface
+    private interface Payload {
+        byte[] write() throws Exception;
+    }
+
+    /**
+     * Bytes allocated by the current thread per call, after a warm-up so the JIT has settled.
+     */
+    private static long bytesPerCall(Payload payload) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += payload.write().length;
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += payload.write().length;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(sink > 0);
+        return allocated / ITERATIONS;
+    }
+
+    // ========== FIXTURES ==========
+
+    private static Users fullUser() {
+        Users user = Users.create();
+        user.setId("4a1b8f0e-93c2-4d3e-8f61-0c2a7b5d9e11");
+        user.setFirstName("Maria");
+        user.setLastName("Petrova");
+        user.setEmail("maria.petrova@example.com");
+        user.setLoginName("mpetrova");
+        user.setStatus("Active");
+        user.setUserType("employee");
+        user.setValidFrom(Instant.parse("2024-01-01T00:00:00Z"));
+        user.setValidTo(Instant.parse("2030-12-31T00:00:00Z"));
+        user.setCompany("Example Ltd");
+        user.setCountry("BG");
+        user.setCity("Sofia");
+        return user;
+    }
+
+    private static Users minimalUser() {
+        Users user = Users.create();
+        user.setLastName("Ivanov");
+        user.setEmail("ivanov@example.com");
+        user.setStatus("Inactive");
+        return user;
+    }
+
+    private static Groups group() {
+        Groups group = Groups.create();
+        group.setId("9d7c6b5a-4e3f-4a2b-9c1d-0e8f7a6b5c4d");
+        group.setName("admins");
+        group.setDisplayName("Administrators");
+        group.setDescription("Tenant administrators");
+        return group;
+    }
+
+    // ========== PREVIOUS IMPLEMENTATION ==========
+    // The HashMap graphs UserServiceHandler serialized before ScimPayloadWriter, kept as the reference.
+
+    private String legacyUser(Users user) throws Exception {
+        Map<String, Object> scimUser = new HashMap<>();
+
+        List<String> schemas = new ArrayList<>(Arrays.asList(
+            ScimPayloadWriter.SCHEMA_USER,
+            ScimPayloadWriter.SCHEMA_SAP_USER
+        ));
+        if (user.getCompany() != null && !user.getCompany().isEmpty()) {
+            schemas.add(ScimPayloadWriter.SCHEMA_ENTERPRISE_USER);
+        }
+        scimUser.put("schemas", schemas);
+
+        scimUser.put("userName", user.getLoginName() != null ? user.getLoginName() : user.getEmail());
+
+        Map<String, Object> name = new HashMap<>();
+        name.put("givenName", user.getFirstName() != null ? user.getFirstName() : "");
+        name.put("familyName", user.getLastName());
+        scimUser.put("name", name);
+
+        Map<String, Object> email = new HashMap<>();
+        email.put("value", user.getEmail());
+        email.put("primary", true);
+        scimUser.put("emails", Arrays.asList(email));
+
+        scimUser.put("active", "Active".equals(user.getStatus()));
+        scimUser.put("userType", user.getUserType() != null ? user.getUserType() : "public");
+
+        Map<String, Object> sapExtension = new HashMap<>();
+        sapExtension.put("userId", user.getLoginName() != null ? user.getLoginName() : user.getEmail());
+        if (user.getValidFrom() != null) {
+            sapExtension.put("validFrom", user.getValidFrom().toString());
+        }
+        if (user.getValidTo() != null) {
+            sapExtension.put("validTo", user.getValidTo().toString());
+        }
+        scimUser.put(ScimPayloadWriter.SCHEMA_SAP_USER, sapExtension);
+
+        if (user.getCompany() != null && !user.getCompany().isEmpty()) {
+            Map<String, Object> entExtension = new HashMap<>();
+            entExtension.put("organization", user.getCompany());
+            scimUser.put(ScimPayloadWriter.SCHEMA_ENTERPRISE_USER, entExtension);
+        }
+
+        if ((user.getCountry() != null && !user.getCountry().isEmpty()) || (user.getCity() != null && !user.getCity().isEmpty())) {
+            Map<String, Object> addr = new HashMap<>();
+            addr.put("type", "home");
+            addr.put("primary", false);
+            if (user.getCountry() != null && !user.getCountry().isEmpty()) {
+                addr.put("country", user.getCountry());
+            }
+            if (user.getCity() != null && !user.getCity().isEmpty()) {
+                addr.put("locality", user.getCity());
+            }
+            scimUser.put("addresses", Arrays.asList(addr));
+        }
+
+        return objectMapper.writeValueAsString(scimUser);
+    }
+
+    private String legacyGroup(Groups group) throws Exception {
+        Map<String, Object> scimGroup = new HashMap<>();
+        scimGroup.put("schemas", Arrays.asList(
+            ScimPayloadWriter.SCHEMA_GROUP,
+            ScimPayloadWriter.SCHEMA_CUSTOM_GROUP
+        ));
+        scimGroup.put("displayName", group.getDisplayName());
+
+        if (group.getDescription() != null) {
+            Map<String, Object> customExtension = new HashMap<>();
+            customExtension.put("description", group.getDescription());
+            scimGroup.put(ScimPayloadWriter.SCHEMA_CUSTOM_GROUP, customExtension);
+        }
+
+        if (group.getId() != null) {
+            scimGroup.put("id", group.getId());
+        }
+
+        return objectMapper.writeValueAsString(scimGroup);
+    }
+
+    private String legacyAddMember(String iasUserId) throws Exception {
+        Map<String, Object> patchOp = new HashMap<>();
+        patchOp.put("schemas", Arrays.asList(ScimPayloadWriter.SCHEMA_PATCH_OP));
+
+        Map<String, Object> operation = new HashMap<>();
+        operation.put("op", "add");
+        operation.put("path", "members");
+
+        Map<String, Object> memberValue = new HashMap<>();
+        memberValue.put("value", iasUserId);
+        operation.put("value", Arrays.asList(memberValue));
+
+        patchOp.put("Operations", Arrays.asList(operation));
+        return objectMapper.writeValueAsString(patchOp);
+    }
+
+    private String legacyRemoveMember(String iasUserId) throws Exception {
+        Map<String, Object> patchOp = new HashMap<>();
+        patchOp.put("schemas", Arrays.asList(ScimPayloadWriter.SCHEMA_PATCH_OP));
+
+        Map<String, Object> operation = new HashMap<>();
+        operation.put("op", "remove");
+        operation.put("path", "members[value eq \"" + iasUserId + "\"]");
+
+        patchOp.put("Operations", Arrays.asList(operation));
+        return objectMapper.writeValueAsString(patchOp);
+    }
+}